@@ -0,0 +1,95 @@
+package io.github.pacifistmc.forgix;
+
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.helpers.NOPLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the separate steps of a merge on synthetic forge and fabric jars
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MergeBenchmark {
+    @Param({"2000"})
+    public int classes;
+
+    @Param({"500"})
+    public int resources;
+
+    @Param({"4"})
+    public int mixins;
+
+    @Param({"4"})
+    public int nestedJars;
+
+    private File directory;
+    private File forgeJar;
+    private File fabricJar;
+    private File mergedJar;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("forgix-benchmark").toFile();
+        forgeJar = new File(directory, "forge.jar");
+        fabricJar = new File(directory, "fabric.jar");
+        SyntheticJars.write(forgeJar, "forge", classes, resources, mixins, nestedJars);
+        SyntheticJars.write(fabricJar, "fabric", classes, resources, mixins, nestedJars);
+
+        // The merged jar without the duplicates removed, this is what removeDuplicate starts from
+        mergedJar = new File(directory, "merged.jar");
+        Files.move(merge(new File(directory, "setup"), false, true).merge(false).toPath(), mergedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(directory);
+    }
+
+    private Forgix.Merge merge(File tempDir, boolean removeDuplicates, boolean streaming) throws IOException {
+        return merge(tempDir, removeDuplicates, streaming, false);
+    }
+
+    private Forgix.Merge merge(File tempDir, boolean removeDuplicates, boolean streaming, boolean inMemory) throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(tempDir);
+        tempDir.mkdirs();
+        Forgix.Merge merge = new Forgix.Merge(Arrays.asList(LoaderInput.forge(forgeJar, null, null), LoaderInput.fabric(fabricJar, null)), SyntheticJars.GROUP, tempDir, "merged.jar", removeDuplicates ? Collections.singletonList(SyntheticJars.COMMON) : null, NOPLogger.NOP_LOGGER);
+        merge.setStreaming(streaming);
+        merge.setInMemoryThreshold(inMemory ? Long.MAX_VALUE : 0);
+        return merge;
+    }
+
+    @State(Scope.Benchmark)
+    public static class MergeMode {
+        @Param({"extracted", "streaming", "memory"})
+        public String mode;
+    }
+
+    @Benchmark
+    public File merge(MergeMode mode) throws IOException {
+        return merge(new File(directory, "merge"), true, mode.mode.equals("streaming"), mode.mode.equals("memory")).merge(false);
+    }
+
+    @Benchmark
+    public void remap() throws IOException {
+        merge(new File(directory, "remap"), false, true).remap();
+    }
+
+    @Benchmark
+    public void removeDuplicate() throws IOException {
+        File tempDir = new File(directory, "removeDuplicate");
+        Forgix.Merge merge = merge(tempDir, true, true);
+        File jar = new File(tempDir, "merged.jar");
+        Files.copy(mergedJar.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        merge.setupDuplicates();
+        merge.removeDuplicate(jar, new File(tempDir, "merged.jar.duplicate.remover"));
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.pacifistmc.forgix;
+
+import io.github.pacifistmc.forgix.utils.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the resource remapping that runs on every extracted loader
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResourceBenchmark {
+    private byte[] text;
+    private byte[] binary;
+    private final Map<String, String> relocations = new HashMap<>();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            builder.append("\"").append(SyntheticJars.COMMON).append(".pkg").append(i).append("\": \"value\",\n");
+        }
+        text = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+        // Only the very last byte gives it away, so the whole array has to be checked
+        binary = new byte[4096];
+        Arrays.fill(binary, (byte) 'a');
+        binary[binary.length - 1] = 0;
+
+        relocations.put(SyntheticJars.GROUP, "forge." + SyntheticJars.GROUP);
+        relocations.put(SyntheticJars.GROUP.replace('.', '/'), "forge/" + SyntheticJars.GROUP.replace('.', '/'));
+    }
+
+    /**
+     * A fresh directory of text files for every invocation, since replacing them changes them
+     */
+    @State(Scope.Thread)
+    public static class TextFiles {
+        @Param({"500"})
+        public int files;
+
+        File directory;
+
+        @Setup(Level.Invocation)
+        public void setup(ResourceBenchmark benchmark) throws IOException {
+            if (directory == null) directory = Files.createTempDirectory("forgix-benchmark").toFile();
+            org.apache.commons.io.FileUtils.cleanDirectory(directory);
+            for (int i = 0; i < files; i++) {
+                Files.write(new File(directory, "lang" + i + ".json").toPath(), benchmark.text);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            org.apache.commons.io.FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void replaceAllTextFiles(TextFiles textFiles) throws IOException {
+        FileUtils.replaceAllTextFiles(textFiles.directory, relocations);
+    }
+
+    @Benchmark
+    public void isBinary(Blackhole blackhole) {
+        blackhole.consume(FileUtils.isBinary(text));
+        blackhole.consume(FileUtils.isBinary(binary));
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.pacifistmc.forgix;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds loader jars that look like the ones of an architectury mod, so the benchmarks have something to merge
+ */
+public class SyntheticJars {
+    public static final String GROUP = "com.example.mod";
+    public static final String COMMON = GROUP + ".common";
+
+    /**
+     * @param jar The jar to write
+     * @param loader The name of the loader, this is used for the package of the loader specific classes
+     * @param classes How many classes there are, half of them are in the common package
+     * @param resources How many resources there are, every fourth of them is binary
+     * @param mixins How many mixin configs there are, every mixin config comes with a refmap
+     * @param nestedJars How many jars there are in META-INF/jars
+     * @throws IOException If the jar couldn't be written
+     */
+    public static void write(File jar, String loader, int classes, int resources, int mixins, int nestedJars) throws IOException {
+        Random random = new Random(loader.hashCode());
+        String common = COMMON.replace('.', '/');
+        String platform = (GROUP + "." + loader).replace('.', '/');
+
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(jar))) {
+            put(zipOutputStream, "META-INF/MANIFEST.MF", ("Manifest-Version: 1.0\n" + (loader.equals("forge") ? "MixinConfigs: " + loader + "0.mixins.json\n" : "") + "\n").getBytes(StandardCharsets.UTF_8));
+            put(zipOutputStream, "META-INF/services/" + GROUP + ".Platform", (GROUP + "." + loader + ".PlatformImpl\n").getBytes(StandardCharsets.UTF_8));
+
+            for (int i = 0; i < classes; i++) {
+                String name = (i % 2 == 0 ? common : platform) + "/pkg" + (i % 16) + "/Class" + i;
+                String reference = (i % 2 == 0 ? platform : common) + "/pkg" + ((i + 1) % 16) + "/Class" + (i + 1);
+                put(zipOutputStream, name + ".class", createClass(name, reference));
+            }
+
+            for (int i = 0; i < resources; i++) {
+                if (i % 4 == 0) {
+                    byte[] bytes = new byte[2048];
+                    random.nextBytes(bytes);
+                    bytes[0] = 0;
+                    put(zipOutputStream, "assets/mod/textures/texture" + i + ".png", bytes);
+                } else {
+                    StringBuilder text = new StringBuilder("{\n");
+                    for (int line = 0; line < 32; line++) {
+                        text.append("  \"key").append(line).append("\": \"").append(line % 8 == 0 ? COMMON + ".pkg" + line + ".Class" + line : "value " + random.nextInt()).append("\",\n");
+                    }
+                    put(zipOutputStream, "assets/mod/lang/lang" + i + ".json", text.append("}\n").toString().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            for (int i = 0; i < mixins; i++) {
+                put(zipOutputStream, loader + i + ".mixins.json", ("{\n  \"package\": \"" + COMMON + ".mixin" + i + "\",\n  \"refmap\": \"" + loader + i + "-refmap.json\"\n}\n").getBytes(StandardCharsets.UTF_8));
+                put(zipOutputStream, loader + i + "-refmap.json", ("{\n  \"mappings\": {\n    \"" + common + "/mixin" + i + "/Mixin\": {}\n  }\n}\n").getBytes(StandardCharsets.UTF_8));
+            }
+
+            for (int i = 0; i < nestedJars; i++) {
+                put(zipOutputStream, "META-INF/jars/library" + i + ".jar", createNestedJar(i));
+            }
+        }
+    }
+
+    private static void put(ZipOutputStream zipOutputStream, String name, byte[] bytes) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(0);
+        zipOutputStream.putNextEntry(entry);
+        zipOutputStream.write(bytes);
+        zipOutputStream.closeEntry();
+    }
+
+    private static byte[] createClass(String name, String reference) {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        classWriter.visitField(Opcodes.ACC_PUBLIC, "reference", "L" + reference + ";", null, null).visitEnd();
+
+        MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "name", "()Ljava/lang/String;", null, null);
+        methodVisitor.visitCode();
+        methodVisitor.visitLdcInsn(reference.replace('/', '.'));
+        methodVisitor.visitInsn(Opcodes.ARETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private static byte[] createNestedJar(int index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(bytes)) {
+            put(zipOutputStream, "library" + index + "/Library.class", createClass("library" + index + "/Library", "java/lang/Object"));
+        }
+        return bytes.toByteArray();
+    }
+}
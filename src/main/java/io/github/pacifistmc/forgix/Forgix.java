@@ -1,30 +1,40 @@
 package io.github.pacifistmc.forgix;
 
-import fr.stevecohen.jarmanager.JarPacker;
 import fr.stevecohen.jarmanager.JarUnpacker;
-import io.github.pacifistmc.forgix.plugin.ForgixMergeExtension;
-import me.lucko.jarrelocator.JarRelocator;
-import me.lucko.jarrelocator.Relocation;
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
+import io.github.pacifistmc.forgix.utils.ClassCache;
+import io.github.pacifistmc.forgix.utils.DuplicateDetector;
+import io.github.pacifistmc.forgix.utils.MemoryCache;
+import io.github.pacifistmc.forgix.utils.MemoryJar;
+import io.github.pacifistmc.forgix.utils.MergeCache;
+import io.github.pacifistmc.forgix.utils.MergeReport;
+import io.github.pacifistmc.forgix.utils.NestedJarRelocator;
+import io.github.pacifistmc.forgix.utils.Relocator;
+import io.github.pacifistmc.forgix.utils.ResourceIndex;
+import io.github.pacifistmc.forgix.utils.TextReplacer;
+import io.github.pacifistmc.forgix.utils.ZipIndex;
+import io.github.pacifistmc.forgix.utils.ZipWriter;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 
 import javax.annotation.Nullable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.jar.JarFile;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 import java.util.jar.Manifest;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import static io.github.pacifistmc.forgix.utils.FileUtils.*;
 
@@ -50,38 +60,41 @@ public class Forgix {
             perms.add(PosixFilePermission.GROUP_READ);
         }
 
-        private File forgeJar;
-        private Map<String, String> forgeRelocations;
-        private List<String> forgeMixins;
-        private File neoforgeJar;
-        private Map<String, String> neoforgeRelocations;
-        private List<String> neoforgeMixins;
-        private File fabricJar;
-        private Map<String, String> fabricRelocations;
-        private File quiltJar;
-        private Map<String, String> quiltRelocations;
-        private final Map<ForgixMergeExtension.CustomContainer, File> customContainerMap;
-        private Map<ForgixMergeExtension.CustomContainer, Map<File, File>> customContainerTemps;
+        private final List<LoaderInput> loaders;
         private final String group;
         private final File tempDir;
         private final String mergedJarName;
-        private final List<String> removeDuplicates;
+        private List<String> removeDuplicates;
 
         private final Logger logger;
         private final Map<String, String> removeDuplicateRelocations = new HashMap<>();
+        private boolean streaming;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        @Nullable
+        private MergeCache cache;
+        @Nullable
+        private MemoryCache memoryCache;
+        @Nullable
+        private ForkJoinPool sharedPool;
+        private final MergeReport report = new MergeReport();
+        private DuplicateDetector.Mode duplicateDetection = DuplicateDetector.Mode.NONE;
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private boolean reproducible;
+        private long inMemoryThreshold = 4L * 1024 * 1024;
+        private boolean inMemory;
+        // Everything every loader was relocated with by name, the nested jars are relocated with the same
+        private final Map<String, Map<String, String>> loaderRelocations = new ConcurrentHashMap<>();
 
-        public Merge(@Nullable File forgeJar, Map<String, String> forgeRelocations, List<String> forgeMixins, @Nullable File neoforgeJar, Map<String, String> neoforgeRelocations, List<String> neoforgeMixins, @Nullable File fabricJar, Map<String, String> fabricRelocations, @Nullable File quiltJar, Map<String, String> quiltRelocations, Map<ForgixMergeExtension.CustomContainer, File> customContainerMap, String group, File tempDir, String mergedJarName, List<String> removeDuplicates, Logger logger) {
-            this.forgeJar = forgeJar;
-            this.forgeRelocations = forgeRelocations;
-            this.forgeMixins = forgeMixins;
-            this.neoforgeJar = neoforgeJar;
-            this.neoforgeRelocations = neoforgeRelocations;
-            this.neoforgeMixins = neoforgeMixins;
-            this.fabricJar = fabricJar;
-            this.fabricRelocations = fabricRelocations;
-            this.quiltJar = quiltJar;
-            this.quiltRelocations = quiltRelocations;
-            this.customContainerMap = customContainerMap;
+        /**
+         * @param loaders The loaders to merge, if multiple loaders have the same entry then the last one wins
+         * @param group The group of the mod, this is what gets prefixed with the name of every loader
+         * @param tempDir The directory to merge in
+         * @param mergedJarName The name of the merged jar
+         * @param removeDuplicates The packages that every loader has a copy of that should only be in the merged jar once
+         * @param logger The logger
+         */
+        public Merge(List<LoaderInput> loaders, String group, File tempDir, String mergedJarName, @Nullable List<String> removeDuplicates, Logger logger) {
+            this.loaders = new ArrayList<>(loaders);
             this.group = group;
             this.tempDir = tempDir;
             this.mergedJarName = mergedJarName;
@@ -89,6 +102,89 @@ public class Forgix {
             this.logger = logger;
         }
 
+        /**
+         * @param spec Everything that decides what ends up in the merged jar, this merge gets its own copy of the loaders
+         * @param logger The logger
+         */
+        public Merge(MergeSpec spec, Logger logger) {
+            this(spec.getLoaders(), spec.getGroup(), spec.getTempDir(), spec.getMergedJarName(), spec.getRemoveDuplicates(), logger);
+            this.streaming = spec.isStreaming();
+            this.duplicateDetection = spec.getDuplicateDetection();
+            this.compressionLevel = spec.getCompressionLevel();
+            this.reproducible = spec.isReproducible();
+            this.inMemoryThreshold = spec.getInMemoryThreshold();
+        }
+
+        /**
+         * @param streaming If true the jars are merged entry by entry without extracting them to temporary directories
+         */
+        public void setStreaming(boolean streaming) {
+            this.streaming = streaming;
+        }
+
+        /**
+         * @param parallelism The maximum amount of loader jars that are relocated at the same time
+         */
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        /**
+         * @param compressionLevel The compression level of the merged jar, from 0 to 9 or -1 for the default
+         */
+        public void setCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+        }
+
+        /**
+         * @param reproducible If the merged jar should be the same every time for the same inputs, with sorted entries and fixed timestamps
+         */
+        public void setReproducible(boolean reproducible) {
+            this.reproducible = reproducible;
+        }
+
+        /**
+         * @param inMemoryThreshold The total size in bytes the loader jars can have to be merged completely in memory, without any temporary files, or 0 to never do that
+         */
+        public void setInMemoryThreshold(long inMemoryThreshold) {
+            this.inMemoryThreshold = inMemoryThreshold;
+        }
+
+        /**
+         * @param cache The cache to reuse previous merges and relocated jars from, or null to always merge from scratch
+         */
+        public void setCache(@Nullable MergeCache cache) {
+            this.cache = cache;
+        }
+
+        /**
+         * @param memoryCache The cache that's kept in memory between merges, or null to work everything out again
+         */
+        public void setMemoryCache(@Nullable MemoryCache memoryCache) {
+            this.memoryCache = memoryCache;
+        }
+
+        /**
+         * @param sharedPool The pool to relocate and compress on, which is shared with other merges and left running, or null to start a pool for this merge
+         */
+        public void setSharedPool(@Nullable ForkJoinPool sharedPool) {
+            this.sharedPool = sharedPool;
+        }
+
+        /**
+         * @param duplicateDetection If the packages that every loader has the same copy of should be reported or removed
+         */
+        public void setDuplicateDetection(DuplicateDetector.Mode duplicateDetection) {
+            this.duplicateDetection = duplicateDetection;
+        }
+
+        /**
+         * @return How long every phase of the merge took and how much it did
+         */
+        public MergeReport getReport() {
+            return report;
+        }
+
         /**
          * This is the main merge method
          *
@@ -103,684 +199,1001 @@ public class Forgix {
             }
 
             tempDir.mkdirs();
-            if (forgeJar == null && neoforgeJar == null && fabricJar == null && quiltJar == null && customContainerMap.isEmpty()) {
-                throw new IllegalArgumentException("No jars were provided.");
-            }
-
-            if (forgeJar != null && !forgeJar.exists()) {
-                logger.warn("Forge jar does not exist! You can ignore this if you are not using forge.\nYou might want to change Forgix settings if something is wrong.");
-            }
-
-            if (neoforgeJar != null && !neoforgeJar.exists()) {
-                logger.warn("NeoForge jar does not exist! You can ignore this if you are not using neoforge.\nYou might want to change Forgix settings if something is wrong.");
-            }
-
-            if (fabricJar != null && !fabricJar.exists()) {
-                logger.warn("Fabric jar does not exist! You can ignore this if you are not using fabric.\nYou might want to change Forgix settings if something is wrong.");
+            if (reproducible) {
+                // The custom containers are merged in the order of their names instead of the order they were configured in
+                List<LoaderInput> customContainers = new ArrayList<>();
+                loaders.removeIf(loader -> loader.isCustom() && customContainers.add(loader));
+                customContainers.sort(Comparator.comparing(LoaderInput::getName));
+                loaders.addAll(customContainers);
             }
 
-            if (quiltJar != null && !quiltJar.exists()) {
-                logger.warn("Quilt jar does not exist! You can ignore this if you are not using quilt.\nYou might want to change Forgix settings if something is wrong.");
+            if (loaders.isEmpty()) {
+                throw new IllegalArgumentException("No jars were provided.");
             }
 
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, File> entry : customContainerMap.entrySet()) {
-                if (!entry.getValue().exists()) {
-                    logger.warn(entry.getKey().getProjectName() + " jar does not exist! You can ignore this if you are not using custom containers.\nYou might want to change Forgix settings if something is wrong.");
+            for (LoaderInput loader : loaders) {
+                if (loader.getJar() != null && !loader.exists()) {
+                    logger.warn(loader.getTitle() + " jar does not exist! You can ignore this if you are not using " + (loader.isCustom() ? "custom containers" : loader.getName()) + ".\nYou might want to change Forgix settings if something is wrong.");
                 }
             }
 
             logger.info("\nForgix is still very new so refer any issues that you might encounter to\n" + "https://github.com/PacifistMC/Forgix/issues");
 
-            logger.info("\nSettings:\n" +
-                    "Forge: " + (forgeJar == null || !forgeJar.exists() ? "No\n" : "Yes\n") +
-                    "NeoForge: " + (neoforgeJar == null || !neoforgeJar.exists() ? "No\n" : "Yes\n") +
-                    "Fabric: " + (fabricJar == null || !fabricJar.exists() ? "No\n" : "Yes\n") +
-                    "Quilt: " + (quiltJar == null || !quiltJar.exists() ? "No\n" : "Yes\n") +
-                    "Custom Containers: " + (customContainerMap.isEmpty() ? "No\n" : "Yes\n") +
-                    "Group: " + group + "\n" +
-                    "Merged Jar Name: " + mergedJarName + "\n"
-            );
-
-            remap();
-
-            File fabricTemps = new File(tempDir, "fabric-temps");
-            File forgeTemps = new File(tempDir, "forge-temps");
-            File neoforgeTemps = new File(tempDir, "neoforge-temps");
-            File quiltTemps = new File(tempDir, "quilt-temps");
-
-            customContainerTemps = new HashMap<>();
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, File> entry : customContainerMap.entrySet()) {
-                Map<File, File> temp = new HashMap<>();
-                // The first file is the jar, the second file is the temps folder.
-                temp.put(entry.getValue(), new File(tempDir, entry.getKey().getProjectName() + "-temps"));
-                customContainerTemps.put(entry.getKey(), temp);
+            StringBuilder settings = new StringBuilder("\nSettings:\n");
+            boolean customContainers = false;
+            for (LoaderInput loader : loaders) {
+                if (loader.isCustom()) customContainers = true;
+                else settings.append(loader.getTitle()).append(": ").append(loader.exists() ? "Yes\n" : "No\n");
+            }
+            settings.append("Custom Containers: ").append(customContainers ? "Yes\n" : "No\n");
+            settings.append("Group: ").append(group).append("\n");
+            settings.append("Merged Jar Name: ").append(mergedJarName).append("\n");
+            logger.info(settings.toString());
+
+            long size = 0;
+            for (LoaderInput loader : existingLoaders()) size += loader.getJar().length();
+            inMemory = size <= inMemoryThreshold;
+            if (inMemory) logger.debug("The loader jars are small enough to be merged in memory.");
+
+            long start = System.nanoTime();
+            String cacheKey = cache == null ? null : mergeCacheKey();
+            if (cacheKey != null && cache.restore("merged", mergedJarName, cacheKey, mergedJar)) {
+                logger.info("Nothing changed since the last merge, reusing the cached merged jar.");
+                cache.save();
+                report.phase("cache").time(start).read(mergedJar.length());
+                report.finish();
+                return mergedJar;
             }
 
-            if (fabricTemps.exists()) FileUtils.deleteQuietly(fabricTemps);
-            fabricTemps.mkdirs();
+            // The streaming merge relocates every entry while it writes it, merging in memory is the same only that the jars are read into memory first
+            if (streaming || inMemory) {
+                mergeStreaming(mergedJar);
+            } else {
+                start = System.nanoTime();
+                remap();
+                report.phase("relocate").time(start);
+
+                if (duplicateDetection != DuplicateDetector.Mode.NONE) {
+                    start = System.nanoTime();
+                    DuplicateDetector detector = new DuplicateDetector(group);
+                    for (LoaderInput loader : existingLoaders()) {
+                        detector.add(loader.getName(), loader.getJar());
+                    }
+                    detectDuplicates(detector);
+                    report.phase("duplicate detection").time(start);
+                }
 
-            if (forgeTemps.exists()) FileUtils.deleteQuietly(forgeTemps);
-            forgeTemps.mkdirs();
+                mergeExtracted(mergedJar);
+            }
+            if (memoryCache != null) logger.info(memoryCache.getStats());
 
-            if (neoforgeTemps.exists()) FileUtils.deleteQuietly(neoforgeTemps);
-            neoforgeTemps.mkdirs();
+            if (cacheKey != null) {
+                start = System.nanoTime();
+                cache.store("merged", mergedJarName, cacheKey, mergedJar);
+                cache.save();
+                report.phase("cache").time(start).written(mergedJar.length());
+            }
 
-            if (quiltTemps.exists()) FileUtils.deleteQuietly(quiltTemps);
-            quiltTemps.mkdirs();
+            report.finish();
+            return mergedJar;
+        }
 
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, Map<File, File>> entry : customContainerTemps.entrySet()) {
-                for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                    if (entry2.getValue().exists()) FileUtils.deleteQuietly(entry2.getValue());
-                    entry2.getValue().mkdirs();
-                }
+        /**
+         * This merges the remapped jars by extracting them to temporary directories
+         *
+         * @param mergedJar The jar to write to
+         * @throws IOException If something went wrong
+         */
+        private void mergeExtracted(File mergedJar) throws IOException {
+            List<LoaderInput> existing = existingLoaders();
+            Map<LoaderInput, File> temps = new LinkedHashMap<>();
+            for (LoaderInput loader : existing) {
+                File loaderTemps = new File(tempDir, loader.getName() + "-temps");
+                if (loaderTemps.exists()) FileUtils.deleteQuietly(loaderTemps);
+                loaderTemps.mkdirs();
+                temps.put(loader, loaderTemps);
             }
 
+            long start = System.nanoTime();
             JarUnpacker jarUnpacker = new JarUnpacker();
-            if (forgeJar != null && forgeJar.exists()) jarUnpacker.unpack(forgeJar.getAbsolutePath(), forgeTemps.getAbsolutePath());
-            if (neoforgeJar != null && neoforgeJar.exists()) jarUnpacker.unpack(neoforgeJar.getAbsolutePath(), neoforgeTemps.getAbsolutePath());
-            if (fabricJar != null && fabricJar.exists()) jarUnpacker.unpack(fabricJar.getAbsolutePath(), fabricTemps.getAbsolutePath());
-            if (quiltJar != null && quiltJar.exists()) jarUnpacker.unpack(quiltJar.getAbsolutePath(), quiltTemps.getAbsolutePath());
-
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, Map<File, File>> entry : customContainerTemps.entrySet()) {
-                for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                    if (entry2.getKey().exists()) jarUnpacker.unpack(entry2.getKey().getAbsolutePath(), entry2.getValue().getAbsolutePath());
-                }
+            for (Map.Entry<LoaderInput, File> entry : temps.entrySet()) {
+                unpack(jarUnpacker, entry.getKey().getJar(), entry.getValue());
             }
+            report.phase("unpack").time(start);
 
             File mergedTemps = new File(tempDir, "merged-temps");
             if (mergedTemps.exists()) FileUtils.deleteQuietly(mergedTemps);
             mergedTemps.mkdirs();
 
+            start = System.nanoTime();
             Manifest mergedManifest = new Manifest();
-            Manifest forgeManifest = new Manifest();
-            Manifest neoforgeManifest = new Manifest();
-            Manifest fabricManifest = new Manifest();
-            Manifest quiltManifest = new Manifest();
-            List<Manifest> customContainerManifests = new ArrayList<>();
-
-            FileInputStream fileInputStream = null;
-            if (forgeJar != null && forgeJar.exists()) forgeManifest.read(fileInputStream = new FileInputStream(new File(forgeTemps, "META-INF/MANIFEST.MF")));
-            if (fileInputStream != null) fileInputStream.close();
-            if (neoforgeJar != null && neoforgeJar.exists()) neoforgeManifest.read(fileInputStream = new FileInputStream(new File(neoforgeTemps, "META-INF/MANIFEST.MF")));
-            if (fileInputStream != null) fileInputStream.close();
-            if (fabricJar != null && fabricJar.exists()) fabricManifest.read(fileInputStream = new FileInputStream(new File(fabricTemps, "META-INF/MANIFEST.MF")));
-            if (fileInputStream != null) fileInputStream.close();
-            if (quiltJar != null && quiltJar.exists()) quiltManifest.read(fileInputStream = new FileInputStream(new File(quiltTemps, "META-INF/MANIFEST.MF")));
-            if (fileInputStream != null) fileInputStream.close();
-
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, Map<File, File>> entry : customContainerTemps.entrySet()) {
-                for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                    Manifest manifest = new Manifest();
-                    if (entry2.getKey() != null && entry2.getKey().exists()) {
-                        manifest.read(fileInputStream = new FileInputStream(new File(entry2.getValue(), "META-INF/MANIFEST.MF")));
-                        customContainerManifests.add(manifest);
+            List<Manifest> manifests = new ArrayList<>();
+            for (File loaderTemps : temps.values()) {
+                Manifest manifest = new Manifest();
+                File manifestFile = new File(loaderTemps, "META-INF/MANIFEST.MF");
+                if (manifestFile.exists()) {
+                    try (FileInputStream fileInputStream = new FileInputStream(manifestFile)) {
+                        manifest.read(fileInputStream);
                     }
-                    if (fileInputStream != null) fileInputStream.close();
                 }
+                manifests.add(manifest);
             }
 
-            forgeManifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-            neoforgeManifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-            fabricManifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-            quiltManifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-
-            for (Manifest manifest : customContainerManifests) {
-                manifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-            }
+            mergeManifests(mergedManifest, manifests);
+            report.phase("manifest merge").time(start);
 
-            if (mergedManifest.getMainAttributes().getValue("MixinConfigs") != null) {
-                String value = mergedManifest.getMainAttributes().getValue("MixinConfigs");
-                String[] mixins;
-                List<String> remappedMixin = new ArrayList<>();
+            // The nested jars are collapsed into the duplicates while the resources are remapped, the rest of the merged jar afterwards
+            setupDuplicates();
 
-                if (value.contains(",")) {
-                    mixins = value.split(",");
-                } else {
-                    mixins = new String[]{value};
+            start = System.nanoTime();
+            ForkJoinPool pool = pool();
+            try {
+                Map<String, String> keptNestedJars = new HashMap<>();
+                for (Map.Entry<LoaderInput, File> entry : temps.entrySet()) {
+                    remapResources(entry.getValue(), entry.getKey(), pool, keptNestedJars);
                 }
+            } finally {
+                release(pool);
+            }
+            report.phase("resource remap").time(start);
 
-                for (String mixin : mixins) {
-                    if (mixin.contains("neoforge") || mixin.contains("neo")) {
-                        remappedMixin.add("neoforge-" + mixin);
-                    } else {
-                        remappedMixin.add("forge-" + mixin);
-                    }
-                }
+            start = System.nanoTime();
+            finishManifest(mergedManifest);
+            report.phase("manifest merge").time(start);
 
-                mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", remappedMixin));
+            for (File loaderTemps : temps.values()) {
+                new File(loaderTemps, "META-INF/MANIFEST.MF").delete();
             }
 
-            if (this.forgeMixins != null) {
-                List<String> newForgeMixins = new ArrayList<>();
-                for (String mixin : this.forgeMixins) {
-                    newForgeMixins.add("forge-" + mixin);
-                }
-                this.forgeMixins = newForgeMixins;
-                if (!forgeMixins.isEmpty()) mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", this.forgeMixins));
+            start = System.nanoTime();
+            new File(metaInf(mergedTemps), "MANIFEST.MF").createNewFile();
+            try (FileOutputStream outputStream = new FileOutputStream(new File(mergedTemps, "META-INF/MANIFEST.MF"))) {
+                mergedManifest.write(outputStream);
             }
 
-            if (this.neoforgeMixins != null) {
-                List<String> newNeoForgeMixins = new ArrayList<>();
-                for (String mixin : this.neoforgeMixins) {
-                    newNeoForgeMixins.add("neoforge-" + mixin);
-                }
-                this.neoforgeMixins = newNeoForgeMixins;
-                if (!neoforgeMixins.isEmpty()) mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", this.neoforgeMixins));
+            for (File loaderTemps : temps.values()) {
+                FileUtils.copyDirectory(loaderTemps, mergedTemps);
             }
 
-            remapResources(forgeTemps, neoforgeTemps, fabricTemps, quiltTemps);
+            long mergedSize = FileUtils.sizeOfDirectory(mergedTemps);
+            report.phase("copy").time(start).written(mergedSize);
 
-            if (this.forgeMixins != null && mergedManifest.getMainAttributes().getValue("MixinConfigs") == null) {
-                logger.debug("Couldn't detect forge mixins. You can ignore this if you are not using mixins with forge.\n" +
-                        "If this is an issue then you can configure mixins manually\n" +
-                        "Though we'll try to detect them automatically.\n");
-                if (!forgeMixins.isEmpty()) {
-                    logger.debug("Detected forge mixins: " + String.join(",", this.forgeMixins) + "\n");
-                    mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", this.forgeMixins));
-                }
+            start = System.nanoTime();
+            try (ZipWriter zipWriter = zipWriter(mergedJar)) {
+                zipWriter.setReproducible(reproducible);
+                zipWriter.putDirectoryContents(mergedTemps);
             }
+            report.phase("pack").time(start).read(mergedSize).written(mergedJar.length()).entries(ZipIndex.read(mergedJar).size());
 
-            if (this.neoforgeMixins != null && mergedManifest.getMainAttributes().getValue("MixinConfigs") == null) {
-                logger.debug("Couldn't detect neoforge mixins. You can ignore this if you are not using mixins with neoforge.\n" +
-                        "If this is an issue then you can configure mixins manually\n" +
-                        "Though we'll try to detect them automatically.\n");
-                if (!neoforgeMixins.isEmpty()) {
-                    logger.debug("Detected neoforge mixins: " + String.join(",", this.neoforgeMixins) + "\n");
-                    mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", this.neoforgeMixins));
-                }
-            }
+            removeDuplicate(mergedJar, new File(tempDir, mergedJarName + ".duplicate.remover"));
 
-            mergedManifest.getMainAttributes().putValue(manifestVersionKey, version);
+            try {
+                Files.setPosixFilePermissions(mergedJar.toPath(), perms);
+            } catch (UnsupportedOperationException | IOException | SecurityException ignored) { }
 
-            if (forgeJar != null && forgeJar.exists()) new File(forgeTemps, "META-INF/MANIFEST.MF").delete();
-            if (neoforgeJar != null && neoforgeJar.exists()) new File(neoforgeTemps, "META-INF/MANIFEST.MF").delete();
-            if (fabricJar != null && fabricJar.exists()) new File(fabricTemps, "META-INF/MANIFEST.MF").delete();
-            if (quiltJar != null && quiltJar.exists()) new File(quiltTemps, "META-INF/MANIFEST.MF").delete();
+            FileUtils.deleteQuietly(mergedTemps);
+            for (Map.Entry<LoaderInput, File> entry : temps.entrySet()) {
+                FileUtils.deleteQuietly(entry.getValue());
+                entry.getKey().getJar().delete();
+            }
+        }
 
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, Map<File, File>> entry : customContainerTemps.entrySet()) {
-                for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                    if (entry2.getKey() != null && entry2.getKey().exists()) new File(entry2.getValue(), "META-INF/MANIFEST.MF").delete();
-                }
+        /**
+         * @return The loaders that have a jar, in the order they're merged in
+         */
+        private List<LoaderInput> existingLoaders() {
+            List<LoaderInput> existing = new ArrayList<>();
+            for (LoaderInput loader : loaders) {
+                if (loader.exists()) existing.add(loader);
             }
+            return existing;
+        }
 
-            new File(metaInf(mergedTemps), "MANIFEST.MF").createNewFile();
-            FileOutputStream outputStream = new FileOutputStream(new File(mergedTemps, "META-INF/MANIFEST.MF"));
-            mergedManifest.write(outputStream);
-            outputStream.close();
+        /**
+         * Extracts a loader jar and records it in the report
+         */
+        private void unpack(JarUnpacker jarUnpacker, File jar, File temps) throws IOException {
+            jarUnpacker.unpack(jar.getAbsolutePath(), temps.getAbsolutePath());
+            report.phase("unpack").read(jar.length()).written(FileUtils.sizeOfDirectory(temps)).entries(ZipIndex.read(jar).size());
+        }
 
-            if (forgeJar != null && forgeJar.exists()) FileUtils.copyDirectory(forgeTemps, mergedTemps);
-            if (neoforgeJar != null && neoforgeJar.exists()) FileUtils.copyDirectory(neoforgeTemps, mergedTemps);
-            if (fabricJar != null && fabricJar.exists()) FileUtils.copyDirectory(fabricTemps, mergedTemps);
-            if (quiltJar != null && quiltJar.exists()) FileUtils.copyDirectory(quiltTemps, mergedTemps);
+        /**
+         * This is the streaming version of the merge
+         * Instead of extracting every jar to a temporary directory this reads the entries from each original loader jar
+         * and writes them straight into the merged jar, relocating, renaming and remapping every entry on the way in a single pass
+         * Small jars are read into memory first so they're only read once
+         *
+         * @param mergedJar The jar to write to
+         * @throws IOException If something went wrong
+         */
+        private void mergeStreaming(File mergedJar) throws IOException {
+            List<StreamingLoader> loaders = new ArrayList<>();
+            for (LoaderInput loader : existingLoaders()) {
+                loaders.add(new StreamingLoader(loader));
+            }
 
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, Map<File, File>> entry : customContainerTemps.entrySet()) {
-                for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                    if (entry2.getKey() != null && entry2.getKey().exists()) FileUtils.copyDirectory(entry2.getValue(), mergedTemps);
+            long start = System.nanoTime();
+            ForkJoinPool pool = pool();
+            try {
+                for (StreamingLoader loader : loaders) {
+                    loader.open(inMemory, zipIndex(loader.jar));
+                    loader.relocate(relocation(loader.zipIndex, loader.input.getName(), loader.input.getRelocations()));
                 }
-            }
+                report.phase("relocate").time(start);
 
-            JarPacker jarPacker = new JarPacker();
-            jarPacker.pack(mergedTemps.getAbsolutePath(), mergedJar.getAbsolutePath());
+                start = System.nanoTime();
+                Manifest mergedManifest = new Manifest();
+                List<Manifest> manifests = new ArrayList<>();
+                for (StreamingLoader loader : loaders) {
+                    Manifest manifest = new Manifest();
+                    byte[] manifestBytes = loader.read("META-INF/MANIFEST.MF");
+                    if (manifestBytes != null) manifest.read(new ByteArrayInputStream(manifestBytes));
+                    manifests.add(manifest);
+                }
 
-            File dupeTemps = new File(mergedTemps.getParentFile(), "duplicate-temps");
-            if (dupeTemps.exists()) FileUtils.deleteQuietly(dupeTemps);
+                mergeManifests(mergedManifest, manifests);
+                report.phase("manifest merge").time(start);
 
-            setupDuplicates();
+                start = System.nanoTime();
+                for (StreamingLoader loader : loaders) {
+                    classifyEntries(loader);
+                }
+                report.phase("resource remap").time(start);
+
+                start = System.nanoTime();
+                finishManifest(mergedManifest);
+                report.phase("manifest merge").time(start);
+
+                if (duplicateDetection != DuplicateDetector.Mode.NONE) {
+                    start = System.nanoTime();
+                    DuplicateDetector detector = new DuplicateDetector(group);
+                    for (StreamingLoader loader : loaders) {
+                        // The detector needs the relocated classes before anything is written, these are kept so they don't have to be relocated again when they're written
+                        for (int entry = 0; entry < loader.size(); entry++) {
+                            String name = loader.getName(entry);
+                            if (name.endsWith("/") || !detector.isGroupEntry(loader.input.getName(), name)) continue;
+                            byte[] bytes = loader.read(entry);
+                            if (name.endsWith(".class")) {
+                                bytes = loader.relocator.relocateClass(bytes);
+                                loader.detectedClasses.put(entry, bytes);
+                            }
+                            detector.add(loader.input.getName(), name, bytes);
+                        }
+                    }
+                    detectDuplicates(detector);
+                    report.phase("duplicate detection").time(start);
+                }
 
-            removeDuplicate(mergedJar, new File(tempDir, mergedJarName + ".duplicate.remover"), mergedTemps);
+                start = System.nanoTime();
+                MergeReport.Phase write = report.phase("write");
+
+                // The duplicates are collapsed while writing, so the merged jar doesn't have to be relocated again afterwards
+                setupDuplicates();
+                Relocator duplicates = removeDuplicateRelocations.isEmpty() ? null : new Relocator(removeDuplicateRelocations);
+                TextReplacer duplicateResources = textReplacer(removeDuplicateRelocationResources);
+                Map<String, String> duplicateHashes = new HashMap<>();
+                List<String> differentDuplicates = new ArrayList<>();
+                int collapsed = 0;
+
+                // The nested jars are relocated on the pool in the meantime, deeper nested jars included
+                for (StreamingLoader loader : loaders) {
+                    loader.nestedJarRelocator = new NestedJarRelocator(loader.relocation, pool);
+                    loader.nestedJarRelocator.setCompressionLevel(compressionLevel);
+                    loader.nestedJarRelocator.setDuplicates(removeDuplicateRelocations);
+                    for (int entry = 0; entry < loader.size(); entry++) {
+                        if (loader.index.getKind(loader.getName(entry)) != ResourceIndex.Kind.NESTED_JAR) continue;
+                        byte[] bytes = loader.read(entry);
+                        loader.nestedJars.put(entry, bytes);
+                        loader.relocatedNestedJars.put(entry, loader.nestedJarRelocator.submit(bytes));
+                    }
+                }
 
-            FileUtils.deleteQuietly(mergedTemps);
+                // The metadata of a loader can only point to the nested jars of an earlier loader once those are relocated, so this waits for them
+                Map<String, String> keptNestedJars = new HashMap<>();
+                for (StreamingLoader loader : loaders) {
+                    for (int entry = 0; entry < loader.size(); entry++) {
+                        ForkJoinTask<byte[]> nestedJar = loader.relocatedNestedJars.get(entry);
+                        if (nestedJar == null) continue;
+                        String entryName = loader.getName(entry);
+                        if (shareNestedJar(keptNestedJars, loader.input, entryName, loader.renames.getOrDefault(entryName, entryName), NestedJarRelocator.join(nestedJar))) loader.sharedNestedJars.add(entry);
+                    }
+                    if (!loader.sharedNestedJars.isEmpty()) loader.replacer = textReplacer(loader.input.getRelocations());
+                }
 
-            jarUnpacker.unpack(mergedJar.getAbsolutePath(), mergedTemps.getAbsolutePath());
+                // Every class is relocated and collapsed into the duplicates at the same time
+                for (StreamingLoader loader : loaders) {
+                    loader.classRelocator = duplicates == null ? loader.relocator : loader.relocator.andThen(duplicates);
+                    String classesKey = new MergeCache.Key().put(version).put(loader.relocation).put(removeDuplicateRelocations).build();
+                    if (cache != null) loader.classes = cache.classes(loader.input.getName(), classesKey);
+                    loader.classCache = classCache(classesKey, loader.classes);
+                }
 
-            removeDuplicateResources(mergedTemps);
+                // FileUtils.copyDirectory lets the later loaders overwrite the earlier ones, so we go backwards and keep the first entry we see
+                Set<String> written = new HashSet<>();
+                ZipWriter zipWriter = zipWriter(mergedJar);
+                zipWriter.setReproducible(reproducible);
+                try {
+                    int now = ZipWriter.toDosTime(System.currentTimeMillis());
+                    zipWriter.putDirectory("META-INF/", now);
+                    ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+                    mergedManifest.write(manifestBytes);
+                    zipWriter.write("META-INF/MANIFEST.MF", duplicateResources.replace(manifestBytes.toByteArray()), now);
+                    written.add("META-INF/");
+                    written.add("META-INF/MANIFEST.MF");
+
+                    for (int i = loaders.size() - 1; i >= 0; i--) {
+                        StreamingLoader loader = loaders.get(i);
+                        for (int entry = 0; entry < loader.size(); entry++) {
+                            String entryName = loader.getName(entry);
+                            String name = loader.renames.getOrDefault(entryName, entryName);
+                            boolean duplicate = false;
+                            if (duplicates != null && !name.startsWith("META-INF/")) {
+                                String relocated = duplicates.relocatePath(name);
+                                if (relocated != null) {
+                                    name = relocated;
+                                    duplicate = true;
+                                }
+                            }
+                            if (!duplicate && written.contains(name)) continue;
+                            if (entryName.endsWith("/")) {
+                                if (written.add(name)) zipWriter.putDirectory(name, loader.getDosTime(entry));
+                                continue;
+                            }
 
-            FileUtils.deleteQuietly(mergedJar);
-            jarPacker.pack(mergedTemps.getAbsolutePath(), mergedJar.getAbsolutePath());
+                            // Nested jars that don't reference anything that's relocated stay the same as well
+                            byte[] nestedJar = loader.nestedJars.get(entry);
+                            if (nestedJar != null && !duplicate) {
+                                if (loader.sharedNestedJars.contains(entry)) continue;
+                                written.add(name);
+                                byte[] relocated = NestedJarRelocator.join(loader.relocatedNestedJars.get(entry));
+                                write.read(nestedJar.length).written(relocated.length);
+                                if (relocated != nestedJar || !loader.copy(zipWriter, name, entry)) zipWriter.write(name, relocated, loader.getDosTime(entry));
+                                continue;
+                            }
 
-            try {
-                Files.setPosixFilePermissions(mergedJar.toPath(), perms);
-            } catch (UnsupportedOperationException | IOException | SecurityException ignored) { }
+                            // Entries that nothing is done to are copied as they are, without inflating and deflating them again
+                            ResourceIndex.Kind kind = loader.index.getKind(entryName);
+                            boolean isClass = FilenameUtils.getExtension(name).equals("class");
+                            if (!isClass && kind != null && !kind.isText() && !duplicate) {
+                                written.add(name);
+                                if (loader.copy(zipWriter, name, entry)) {
+                                    write.read(loader.getSize(entry)).written(loader.getSize(entry));
+                                    continue;
+                                }
+                            }
 
-            FileUtils.deleteQuietly(mergedTemps);
-            if (forgeJar != null && forgeJar.exists()) {
-                FileUtils.deleteQuietly(forgeTemps);
-                forgeJar.delete();
-            }
-            if (neoforgeJar != null && neoforgeJar.exists()) {
-                FileUtils.deleteQuietly(neoforgeTemps);
-                neoforgeJar.delete();
-            }
-            if (fabricJar != null && fabricJar.exists()) {
-                FileUtils.deleteQuietly(fabricTemps);
-                fabricJar.delete();
-            }
-            if (quiltJar != null && quiltJar.exists()) {
-                FileUtils.deleteQuietly(quiltTemps);
-                quiltJar.delete();
-            }
+                            byte[] bytes = loader.read(entry);
+                            write.read(bytes.length);
+
+                            // Classes are relocated on the threads that deflate them, only duplicates have to be relocated right away to compare them
+                            if (isClass && !duplicate) {
+                                written.add(name);
+                                int classEntry = entry;
+                                zipWriter.write(name, () -> {
+                                    byte[] relocated = loader.relocateClass(classEntry, bytes, duplicateResources);
+                                    write.written(relocated.length);
+                                    return relocated;
+                                }, loader.getDosTime(entry));
+                                continue;
+                            }
 
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, Map<File, File>> entry : customContainerTemps.entrySet()) {
-                for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                    if (entry2.getKey() != null && entry2.getKey().exists()) {
-                        FileUtils.deleteQuietly(entry2.getValue());
-                        entry2.getKey().delete();
+                            byte[] contents = bytes;
+                            if (isClass) {
+                                contents = loader.relocateClass(entry, bytes, duplicateResources);
+                            } else if (kind != null && kind.isText()) {
+                                contents = duplicateResources.replace(loader.replacer.replace(bytes));
+                                if (contents != bytes) write.relocations(1);
+                            }
+
+                            // Every loader has its own copy of a duplicate, these should be the same once they're relocated
+                            if (duplicate) {
+                                String hash = MergeCache.hash(contents);
+                                String previousHash = duplicateHashes.putIfAbsent(name, hash);
+                                if (previousHash != null) {
+                                    if (previousHash.equals(hash)) collapsed++;
+                                    else differentDuplicates.add(name);
+                                    continue;
+                                }
+                                if (!written.add(name)) continue;
+                            } else {
+                                written.add(name);
+                            }
+
+                            if (contents != bytes || !loader.copy(zipWriter, name, entry)) zipWriter.write(name, contents, loader.getDosTime(entry));
+                            write.written(contents.length);
+                        }
                     }
+                } finally {
+                    zipWriter.close();
+                }
+                logger.debug("Copied " + zipWriter.getCopied() + " entries into the merged jar without inflating them.");
+                write.time(start).entries(written.size());
+                for (StreamingLoader loader : loaders) {
+                    report.phase("relocate").entries(loader.size()).relocations(loader.relocator.getRelocations());
+                    if (loader.classes != null) logger.debug("Relocated " + loader.classes.getRelocated() + " classes of " + loader.input.getName() + " and reused " + loader.classes.getReused() + " from the cache.");
+                    reportNestedJars(loader.input, loader.nestedJarRelocator);
+                }
+                if (duplicates != null) {
+                    report.phase("duplicate removal").entries(collapsed).relocations(duplicates.getRelocations());
+                    logger.info("Collapsed " + collapsed + " duplicate entries into their shared package.");
+                }
+                if (!differentDuplicates.isEmpty()) {
+                    logger.info(differentDuplicates.size() + " duplicate entries are different between the loaders, only the one of the last loader was kept. For example: " + differentDuplicates.get(0));
+                }
+            } finally {
+                release(pool);
+                for (StreamingLoader loader : loaders) {
+                    loader.close();
                 }
             }
 
-            if (dupeTemps.exists()) FileUtils.deleteQuietly(dupeTemps);
-
-            return mergedJar;
+            try {
+                Files.setPosixFilePermissions(mergedJar.toPath(), perms);
+            } catch (UnsupportedOperationException | IOException | SecurityException ignored) { }
         }
 
         /**
-         * This is the method that remaps the bytecode
-         * We do this remapping in order to not get any conflicts
+         * This is the streaming version of {@link #remapResources(File, LoaderInput, ForkJoinPool, Map)}
+         * It works out which entries have to be renamed without extracting anything
          *
+         * @param loader The loader to classify
          * @throws IOException If something went wrong
          */
-        private void remap() throws IOException {
-            if (forgeJar != null && forgeJar.exists()) {
-                File remappedForgeJar = new File(tempDir, "tempForgeInMerging.jar");
-                if (remappedForgeJar.exists()) remappedForgeJar.delete();
-                remappedForgeJar.createNewFile();
-
-                List<Relocation> forgeRelocation = new ArrayList<>();
-                forgeRelocation.add(new Relocation(group, "forge." + group));
-                if (forgeRelocations != null)
-                    forgeRelocation.addAll(forgeRelocations.entrySet().stream().map(entry -> new Relocation(entry.getKey(), entry.getValue())).collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
-
-                AtomicReference<String> architectury = new AtomicReference<>();
-                architectury.set(null);
-
-                JarFile jarFile = new JarFile(forgeJar);
-                jarFile.stream().forEach(jarEntry -> {
-                    if (jarEntry.isDirectory()) {
-                        if (jarEntry.getName().startsWith("architectury_inject")) {
-                            architectury.set(jarEntry.getName());
-                        }
-                    } else {
-                        String firstDirectory = getFirstDirectory(jarEntry.getName());
-                        if (firstDirectory.startsWith("architectury_inject")) {
-                            architectury.set(firstDirectory);
-                        }
-                    }
-                });
-                jarFile.close();
+        private void classifyEntries(StreamingLoader loader) throws IOException {
+            loader.index = new ResourceIndex();
+            for (int entry = 0; entry < loader.size(); entry++) {
+                String name = loader.getName(entry);
+                if (name.endsWith("/")) continue;
+                try (InputStream inputStream = loader.open(entry)) {
+                    loader.index.add(name, inputStream, group);
+                }
+            }
 
-                if (architectury.get() != null) forgeRelocation.add(new Relocation(architectury.get(), "forge." + architectury.get()));
+            List<String> mixins = new ArrayList<>();
+            loader.renames.putAll(renameResources(loader.index, loader.input, mixins));
+            report.phase("resource remap").entries(loader.index.getKinds().size()).relocations(loader.renames.size());
 
-                JarRelocator forgeRelocator = new JarRelocator(forgeJar, remappedForgeJar, forgeRelocation);
-                forgeRelocator.run();
+            if (loader.input.isForge()) loader.input.setMixins(mixins);
+            loader.replacer = textReplacer(loader.input.getRelocations());
+        }
 
-                forgeJar = remappedForgeJar;
+        /**
+         * A loader jar that's being merged by {@link #mergeStreaming(File)}
+         * The entries are read from the original jar, or from memory if the jar was small enough
+         */
+        private static class StreamingLoader {
+            final LoaderInput input;
+            final File jar;
+            @Nullable
+            MemoryJar memoryJar;
+            java.util.zip.ZipFile zipFile;
+            ZipIndex zipIndex;
+            FileChannel channel;
+            Map<String, String> relocation;
+            Relocator relocator;
+            Relocator classRelocator;
+            @Nullable
+            MergeCache.Classes classes;
+            @Nullable
+            ClassCache classCache;
+            // The relocated names of the entries that are merged and where they are in the jar, signatures and entries that end up with the name of an earlier entry are left out
+            final List<String> names = new ArrayList<>();
+            final List<Integer> sources = new ArrayList<>();
+            final Map<String, String> renames = new HashMap<>();
+            ResourceIndex index;
+            TextReplacer replacer;
+            NestedJarRelocator nestedJarRelocator;
+            // The nested jars and the nested jars that are being relocated, by entry
+            final Map<Integer, byte[]> nestedJars = new HashMap<>();
+            final Map<Integer, ForkJoinTask<byte[]>> relocatedNestedJars = new HashMap<>();
+            // The nested jars that an earlier loader has the same copy of, these aren't written
+            final Set<Integer> sharedNestedJars = new HashSet<>();
+            // The classes that were relocated for the duplicate detection, by entry
+            final Map<Integer, byte[]> detectedClasses = new HashMap<>();
+
+            StreamingLoader(LoaderInput input) {
+                this.input = input;
+                this.jar = input.getJar();
             }
 
-            if (neoforgeJar != null && neoforgeJar.exists()) {
-                File remappedNeoForgeJar = new File(tempDir, "tempNeoForgeInMerging.jar");
-                if (remappedNeoForgeJar.exists()) remappedNeoForgeJar.delete();
-                remappedNeoForgeJar.createNewFile();
+            void open(boolean inMemory, ZipIndex zipIndex) throws IOException {
+                this.zipIndex = zipIndex;
+                if (inMemory) {
+                    memoryJar = MemoryJar.read(jar, zipIndex);
+                } else {
+                    zipFile = new java.util.zip.ZipFile(jar);
+                }
+                channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ);
+            }
+
+            /**
+             * Works out the relocated name of every entry, the entries themselves are relocated when they're written
+             * @param relocation Every relocation of the loader
+             */
+            void relocate(Map<String, String> relocation) {
+                this.relocation = relocation;
+                this.relocator = new Relocator(relocation);
+                Set<String> relocated = new HashSet<>();
+                int size = memoryJar == null ? zipIndex.size() : memoryJar.size();
+                for (int source = 0; source < size; source++) {
+                    String name = relocator.relocateEntry(memoryJar == null ? zipIndex.getName(source) : memoryJar.getName(source));
+                    if (name == null || !relocated.add(name)) continue;
+                    names.add(name);
+                    sources.add(source);
+                }
+            }
 
-                List<Relocation> neoforgeRelocation = new ArrayList<>();
-                neoforgeRelocation.add(new Relocation(group, "neoforge." + group));
-                if (neoforgeRelocations != null)
-                    neoforgeRelocation.addAll(neoforgeRelocations.entrySet().stream().map(entry -> new Relocation(entry.getKey(), entry.getValue())).collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
+            byte[] relocateClass(byte[] bytes) throws IOException {
+                return classCache == null ? classRelocator.relocateClass(bytes) : classCache.relocate(bytes, classRelocator::relocateClass);
+            }
 
-                AtomicReference<String> architectury = new AtomicReference<>();
-                architectury.set(null);
+            /**
+             * Relocates a class of the merged jar, the class that the duplicate detection relocated is reused if it doesn't reference any of the duplicates
+             * @param duplicates The replacements of the duplicates, these are only looked for and not applied
+             */
+            byte[] relocateClass(int entry, byte[] bytes, TextReplacer duplicates) throws IOException {
+                byte[] detected = detectedClasses.get(entry);
+                if (detected == null || duplicates.replace(detected) != detected) return relocateClass(bytes);
+                return classCache == null ? detected : classCache.relocate(bytes, original -> detected);
+            }
 
-                JarFile jarFile = new JarFile(neoforgeJar);
-                jarFile.stream().forEach(jarEntry -> {
-                    if (jarEntry.isDirectory()) {
-                        if (jarEntry.getName().startsWith("architectury_inject")) {
-                            architectury.set(jarEntry.getName());
-                        }
-                    } else {
-                        String firstDirectory = getFirstDirectory(jarEntry.getName());
-                        if (firstDirectory.startsWith("architectury_inject")) {
-                            architectury.set(firstDirectory);
-                        }
-                    }
-                });
-                jarFile.close();
+            int size() {
+                return names.size();
+            }
 
-                if (architectury.get() != null) neoforgeRelocation.add(new Relocation(architectury.get(), "neoforge." + architectury.get()));
+            String getName(int entry) {
+                return names.get(entry);
+            }
 
-                JarRelocator neoforgeJarRelocator = new JarRelocator(neoforgeJar, remappedNeoForgeJar, neoforgeRelocation);
-                neoforgeJarRelocator.run();
+            int getDosTime(int entry) {
+                int source = sources.get(entry);
+                return memoryJar == null ? zipIndex.getDosTime(source) : memoryJar.getDosTime(source);
+            }
 
-                neoforgeJar = remappedNeoForgeJar;
+            long getSize(int entry) {
+                int source = sources.get(entry);
+                return memoryJar == null ? zipIndex.getSize(source) : memoryJar.getBytes(source).length;
             }
 
-            if (fabricJar != null && fabricJar.exists()) {
-                File remappedFabricJar = new File(tempDir, "tempFabricInMerging.jar");
-                if (remappedFabricJar.exists()) remappedFabricJar.delete();
-                remappedFabricJar.createNewFile();
+            InputStream open(int entry) throws IOException {
+                return openSource(sources.get(entry));
+            }
 
-                List<Relocation> fabricRelocation = new ArrayList<>();
-                fabricRelocation.add(new Relocation(group, "fabric." + group));
-                if (fabricRelocations != null)
-                    fabricRelocation.addAll(fabricRelocations.entrySet().stream().map(entry -> new Relocation(entry.getKey(), entry.getValue())).collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
+            byte[] read(int entry) throws IOException {
+                return readSource(sources.get(entry));
+            }
 
-                AtomicReference<String> architectury = new AtomicReference<>();
-                architectury.set(null);
+            /**
+             * @param name The name of an entry in the original jar
+             * @return The contents of the entry or null if there's no such entry
+             */
+            @Nullable
+            byte[] read(String name) throws IOException {
+                int source = memoryJar == null ? zipIndex.indexOf(name) : memoryJar.indexOf(name);
+                return source == -1 ? null : readSource(source);
+            }
 
-                JarFile jarFile = new JarFile(fabricJar);
-                jarFile.stream().forEach(jarEntry -> {
-                    if (jarEntry.isDirectory()) {
-                        if (jarEntry.getName().startsWith("architectury_inject")) {
-                            architectury.set(jarEntry.getName());
-                        }
-                    } else {
-                        String firstDirectory = getFirstDirectory(jarEntry.getName());
-                        if (firstDirectory.startsWith("architectury_inject")) {
-                            architectury.set(firstDirectory);
-                        }
-                    }
-                });
-                jarFile.close();
+            /**
+             * Copies an entry from the original jar into the merged jar without inflating it
+             * @return If the entry was copied, otherwise it has to be written
+             */
+            boolean copy(ZipWriter zipWriter, String name, int entry) throws IOException {
+                int source = sources.get(entry);
+                return zipWriter.copy(name, zipIndex, memoryJar == null ? source : memoryJar.getSourceEntry(source), channel);
+            }
 
-                if (architectury.get() != null) fabricRelocation.add(new Relocation(architectury.get(), "fabric." + architectury.get()));
+            void close() throws IOException {
+                if (classes != null) classes.close();
+                if (zipFile != null) zipFile.close();
+                if (channel != null) channel.close();
+            }
 
-                JarRelocator fabricRelocator = new JarRelocator(fabricJar, remappedFabricJar, fabricRelocation);
-                fabricRelocator.run();
+            private InputStream openSource(int source) throws IOException {
+                if (memoryJar != null) return new ByteArrayInputStream(memoryJar.getBytes(source));
+                return zipFile.getInputStream(zipFile.getEntry(zipIndex.getName(source)));
+            }
 
-                fabricJar = remappedFabricJar;
+            private byte[] readSource(int source) throws IOException {
+                if (memoryJar != null) return memoryJar.getBytes(source);
+                try (InputStream inputStream = openSource(source)) {
+                    return IOUtils.toByteArray(inputStream);
+                }
             }
+        }
 
-            if (quiltJar != null && quiltJar.exists()) {
-                File remappedQuiltJar = new File(tempDir, "tempQuiltInMerging.jar");
-                if (remappedQuiltJar.exists()) remappedQuiltJar.delete();
-                remappedQuiltJar.createNewFile();
+        /**
+         * Merges the main attributes of all the manifests into one
+         * This also remaps the mixins that are specified in the manifests
+         *
+         * @param mergedManifest The manifest to merge into
+         * @param manifests The manifests of the loaders, if multiple loaders have the same attribute then the last one wins
+         */
+        private void mergeManifests(Manifest mergedManifest, List<Manifest> manifests) {
+            for (Manifest manifest : manifests) {
+                manifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
+            }
 
-                List<Relocation> quiltRelocation = new ArrayList<>();
-                quiltRelocation.add(new Relocation(group, "quilt." + group));
-                if (quiltRelocations != null)
-                    quiltRelocation.addAll(quiltRelocations.entrySet().stream().map(entry -> new Relocation(entry.getKey(), entry.getValue())).collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
+            if (mergedManifest.getMainAttributes().getValue("MixinConfigs") != null) {
+                String value = mergedManifest.getMainAttributes().getValue("MixinConfigs");
+                String[] mixins;
+                List<String> remappedMixin = new ArrayList<>();
 
-                AtomicReference<String> architectury = new AtomicReference<>();
-                architectury.set(null);
+                if (value.contains(",")) {
+                    mixins = value.split(",");
+                } else {
+                    mixins = new String[]{value};
+                }
 
-                JarFile jarFile = new JarFile(quiltJar);
-                jarFile.stream().forEach(jarEntry -> {
-                    if (jarEntry.isDirectory()) {
-                        if (jarEntry.getName().startsWith("architectury_inject")) {
-                            architectury.set(jarEntry.getName());
-                        }
+                for (String mixin : mixins) {
+                    if (mixin.contains("neoforge") || mixin.contains("neo")) {
+                        remappedMixin.add("neoforge-" + mixin);
                     } else {
-                        String firstDirectory = getFirstDirectory(jarEntry.getName());
-                        if (firstDirectory.startsWith("architectury_inject")) {
-                            architectury.set(firstDirectory);
-                        }
+                        remappedMixin.add("forge-" + mixin);
                     }
-                });
-
-                if (architectury.get() != null) quiltRelocation.add(new Relocation(architectury.get(), "quilt." + architectury.get()));
-
-                JarRelocator quiltRelocator = new JarRelocator(quiltJar, remappedQuiltJar, quiltRelocation);
-                quiltRelocator.run();
+                }
 
-                quiltJar = remappedQuiltJar;
+                mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", remappedMixin));
             }
 
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, File> entry : customContainerMap.entrySet()) {
-                if (entry.getValue() != null && entry.getValue().exists()) {
-                    String name = entry.getKey().getProjectName();
-                    File remappedCustomJar = new File(tempDir, "tempCustomInMerging_" + name + ".jar");
-                    if (remappedCustomJar.exists()) remappedCustomJar.delete();
-
-                    List<Relocation> customRelocation = new ArrayList<>();
-                    customRelocation.add(new Relocation(group, name + "." + group));
-                    if (entry.getKey().getAdditionalRelocates() != null)
-                        customRelocation.addAll(entry.getKey().getAdditionalRelocates().entrySet().stream().map(entry1 -> new Relocation(entry1.getKey(), entry1.getValue())).collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
-
-                    AtomicReference<String> architectury = new AtomicReference<>();
-                    architectury.set(null);
+            for (LoaderInput loader : loaders) {
+                if (!loader.isForge() || loader.getMixins() == null) continue;
+                List<String> remappedMixins = new ArrayList<>();
+                for (String mixin : loader.getMixins()) {
+                    remappedMixins.add(loader.getName() + "-" + mixin);
+                }
+                loader.setMixins(remappedMixins);
+                if (!remappedMixins.isEmpty()) mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", remappedMixins));
+            }
+        }
 
-                    JarFile jarFile = new JarFile(entry.getValue());
-                    jarFile.stream().forEach(jarEntry -> {
-                        if (jarEntry.isDirectory()) {
-                            if (jarEntry.getName().startsWith("architectury_inject")) {
-                                architectury.set(jarEntry.getName());
-                            }
-                        } else {
-                            String firstDirectory = getFirstDirectory(jarEntry.getName());
-                            if (firstDirectory.startsWith("architectury_inject")) {
-                                architectury.set(firstDirectory);
-                            }
-                        }
-                    });
+        /**
+         * Adds the detected forge/neoforge mixins if the manifest doesn't have any and marks the manifest with the Forgix version
+         * This should be called after the resources have been remapped
+         */
+        private void finishManifest(Manifest mergedManifest) {
+            for (LoaderInput loader : loaders) {
+                if (!loader.isForge() || loader.getMixins() == null || mergedManifest.getMainAttributes().getValue("MixinConfigs") != null) continue;
+                logger.debug("Couldn't detect " + loader.getName() + " mixins. You can ignore this if you are not using mixins with " + loader.getName() + ".\n" +
+                        "If this is an issue then you can configure mixins manually\n" +
+                        "Though we'll try to detect them automatically.\n");
+                if (!loader.getMixins().isEmpty()) {
+                    logger.debug("Detected " + loader.getName() + " mixins: " + String.join(",", loader.getMixins()) + "\n");
+                    mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", loader.getMixins()));
+                }
+            }
 
-                    if (architectury.get() != null)
-                        customRelocation.add(new Relocation(architectury.get(), name + "." + architectury.get()));
+            mergedManifest.getMainAttributes().putValue(manifestVersionKey, version);
 
-                    JarRelocator customRelocator = new JarRelocator(entry.getValue(), remappedCustomJar, customRelocation);
-                    customRelocator.run();
+            if (reproducible) {
+                // The attributes would otherwise be in the order the loader manifests happened to have them in
+                Map<Object, Object> attributes = new TreeMap<>(Comparator.comparing(Object::toString));
+                attributes.putAll(mergedManifest.getMainAttributes());
+                mergedManifest.getMainAttributes().clear();
+                attributes.forEach(mergedManifest.getMainAttributes()::put);
+            }
+        }
 
-                    customContainerMap.replace(entry.getKey(), entry.getValue(), remappedCustomJar);
-                }
+        /**
+         * @return The key of everything that affects the merged jar
+         * @throws IOException If one of the jars couldn't be hashed
+         */
+        private String mergeCacheKey() throws IOException {
+            MergeCache.Key key = new MergeCache.Key().put(version).put(group).put(streaming || inMemory).put(removeDuplicates).put(duplicateDetection.name()).put(compressionLevel).put(reproducible);
+            for (LoaderInput loader : loaders) {
+                key.put(loader.getName()).put(loader.exists() ? cache.hash(loader.getJar()) : null).put(loader.getRelocations()).put(loader.getMixins());
             }
+            return key.build();
         }
 
         /**
-         * This is the second remapping method
-         * This basically remaps all resources such as mixins, manifestJars, etc.
-         * This method also finds all the forge/neoforge mixins for you if not detected
+         * This is the method that remaps the bytecode
+         * We do this remapping in order to not get any conflicts
+         * Every loader is relocated on its own thread, up to {@link #parallelism} at the same time
          *
-         * @param forgeTemps  The extracted forge jar directory
-         * @param neoforgeTemps The extracted neoforge jar directory
-         * @param fabricTemps The extracted fabric jar directory
-         * @param quiltTemps  The extracted quilt jar directory
          * @throws IOException If something went wrong
          */
-        private void remapResources(File forgeTemps, File neoforgeTemps, File fabricTemps, File quiltTemps) throws IOException {
-            if (forgeRelocations == null) forgeRelocations = new HashMap<>();
-            if (neoforgeRelocations == null) neoforgeRelocations = new HashMap<>();
-
-            if (forgeJar != null && forgeJar.exists()) {
-                for (File file : manifestJars(forgeTemps)) {
-                    File remappedFile = new File(file.getParentFile(), "forge-" + file.getName());
-                    forgeRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
+        void remap() throws IOException {
+            ExecutorService executor = sharedPool != null ? sharedPool : Executors.newFixedThreadPool(Math.max(1, parallelism));
+            try {
+                Map<LoaderInput, Future<File>> futures = new LinkedHashMap<>();
+                for (LoaderInput loader : existingLoaders()) {
+                    File jar = loader.getJar();
+                    futures.put(loader, executor.submit(() -> relocate(jar, new File(tempDir, "tempInMerging_" + loader.getName() + ".jar"), loader.getName(), loader.getRelocations())));
                 }
 
-                for (File file : listAllPlatformServices(forgeTemps, group)) {
-                    File remappedFile = new File(file.getParentFile(), "forge." + file.getName());
-                    forgeRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
+                for (Map.Entry<LoaderInput, Future<File>> future : futures.entrySet()) {
+                    future.getKey().setJar(await(future.getValue()));
                 }
+            } finally {
+                if (executor != sharedPool) executor.shutdownNow();
+            }
+        }
 
-                forgeMixins = new ArrayList<>();
-                for (File file : listAllMixins(forgeTemps, false)) {
-                    File remappedFile = new File(file.getParentFile(), "forge-" + file.getName());
-                    forgeRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
+        /**
+         * Relocates a single loader jar, this is what {@link #remap()} runs for every loader
+         *
+         * @param jar The jar to relocate
+         * @param remappedJar The jar to write the relocated jar to
+         * @param name The name of the loader, this is what the group gets prefixed with
+         * @param relocations The additional relocations of the loader
+         * @return The relocated jar
+         * @throws IOException If something went wrong
+         */
+        private File relocate(File jar, File remappedJar, String name, @Nullable Map<String, String> relocations) throws IOException {
+            // This is worked out even if the relocated jar is cached, the nested jars are relocated with it later on
+            Map<String, String> relocation = relocation(zipIndex(jar), name, relocations);
+            String cacheKey = cache == null ? null : new MergeCache.Key().put(version).put(cache.hash(jar)).put(name).put(group).put(relocations).put(compressionLevel).build();
+            if (cacheKey != null && cache.restore("relocated", name, cacheKey, remappedJar)) {
+                report.phase("relocate").read(remappedJar.length());
+                return remappedJar;
+            }
 
-                    forgeMixins.add(remappedFile.getName());
+            if (remappedJar.exists()) remappedJar.delete();
+            remappedJar.createNewFile();
+
+            Relocator relocator = new Relocator(relocation);
+            relocator.setCompressionLevel(compressionLevel);
+            if (cache == null && memoryCache == null) {
+                relocator.relocateJar(jar, remappedJar, null);
+            } else {
+                // Usually only a few classes changed since the last merge, so the rest are taken from the cache
+                String classesKey = new MergeCache.Key().put(version).put(relocation).build();
+                try (MergeCache.Classes classes = cache == null ? null : cache.classes(name, classesKey)) {
+                    relocator.relocateJar(jar, remappedJar, null, classCache(classesKey, classes));
+                    if (classes != null) logger.debug("Relocated " + classes.getRelocated() + " classes of " + name + " and reused " + classes.getReused() + " from the cache.");
                 }
+            }
+            report.phase("relocate").read(relocator.getBytesRead()).written(relocator.getBytesWritten()).entries(relocator.getEntries()).relocations(relocator.getRelocations());
 
-                for (File file : listAllRefmaps(forgeTemps)) {
-                    File remappedFile = new File(file.getParentFile(), "forge-" + file.getName());
-                    forgeRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
-                }
+            if (cacheKey != null) cache.store("relocated", name, cacheKey, remappedJar);
+            return remappedJar;
+        }
 
-                forgeRelocations.put(group, "forge." + group);
-                forgeRelocations.put(group.replace(".", "/"), "forge/" + group.replace(".", "/"));
-                replaceAllTextFiles(forgeTemps, forgeRelocations);
-            }
+        /**
+         * @param index The index of the jar to relocate
+         * @param name The name of the loader
+         * @param relocations The additional relocations of the loader
+         * @return Every relocation of the loader, the group and architectury's injected classes get prefixed with the name of the loader
+         */
+        private Map<String, String> relocation(ZipIndex index, String name, @Nullable Map<String, String> relocations) {
+            Map<String, String> relocation = new LinkedHashMap<>();
+            relocation.put(group, name + "." + group);
+            if (relocations != null) relocation.putAll(relocations);
+
+            String architectury = index.findTopDirectory("architectury_inject");
+            if (architectury != null) relocation.put(architectury, name + "." + architectury);
+            loaderRelocations.put(name, relocation);
+            return relocation;
+        }
 
-            if (neoforgeJar != null && neoforgeJar.exists()) {
-                for (File file : manifestJars(neoforgeTemps)) {
-                    File remappedFile = new File(file.getParentFile(), "neoforge-" + file.getName());
-                    neoforgeRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
-                }
+        private ForkJoinPool pool() {
+            return sharedPool != null ? sharedPool : new ForkJoinPool(Math.max(1, parallelism));
+        }
 
-                for (File file : listAllPlatformServices(neoforgeTemps, group)) {
-                    File remappedFile = new File(file.getParentFile(), "neoforge." + file.getName());
-                    neoforgeRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
-                }
+        private void release(ForkJoinPool pool) {
+            if (pool != sharedPool) pool.shutdownNow();
+        }
 
-                neoforgeMixins = new ArrayList<>();
-                for (File file : listAllMixins(neoforgeTemps, false)) {
-                    File remappedFile = new File(file.getParentFile(), "neoforge-" + file.getName());
-                    neoforgeRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
+        private ZipWriter zipWriter(File jar) throws IOException {
+            return sharedPool != null ? new ZipWriter(jar, compressionLevel, sharedPool, parallelism) : new ZipWriter(jar, compressionLevel, parallelism);
+        }
 
-                    neoforgeMixins.add(remappedFile.getName());
-                }
+        /**
+         * @return The index of a jar, taken from the memory cache if the jar didn't change since the last merge
+         */
+        private ZipIndex zipIndex(File jar) throws IOException {
+            return memoryCache == null ? ZipIndex.read(jar) : memoryCache.zipIndex(jar);
+        }
 
-                for (File file : listAllRefmaps(neoforgeTemps)) {
-                    File remappedFile = new File(file.getParentFile(), "neoforge-" + file.getName());
-                    neoforgeRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
-                }
+        /**
+         * @return The compiled replacements, taken from the memory cache if the same replacements were compiled before
+         */
+        private TextReplacer textReplacer(Map<String, String> replacements) {
+            return memoryCache == null ? TextReplacer.compile(replacements) : memoryCache.textReplacer(replacements);
+        }
 
-                neoforgeRelocations.put(group, "neoforge." + group);
-                neoforgeRelocations.put(group.replace(".", "/"), "neoforge/" + group.replace(".", "/"));
-                replaceAllTextFiles(neoforgeTemps, neoforgeRelocations);
-            }
+        /**
+         * @param key The key of the relocations that are applied to the classes
+         * @param classes The relocated classes on disk or null if there's no cache
+         * @return Where relocated classes are looked up, the memory cache comes before the one on disk
+         */
+        @Nullable
+        private ClassCache classCache(String key, @Nullable MergeCache.Classes classes) {
+            return memoryCache == null ? classes : memoryCache.classes(key, classes);
+        }
 
-            if (fabricRelocations == null) fabricRelocations = new HashMap<>();
-            if (fabricJar != null && fabricJar.exists()) {
-                for (File file : manifestJars(fabricTemps)) {
-                    File remappedFile = new File(file.getParentFile(), "fabric-" + file.getName());
-                    fabricRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
-                }
+        /**
+         * Waits for a relocation to finish and rethrows whatever it failed with
+         */
+        private static <T> T await(Future<T> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while relocating");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
 
-                for (File file : listAllPlatformServices(fabricTemps, group)) {
-                    File remappedFile = new File(file.getParentFile(), "fabric." + file.getName());
-                    fabricRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
-                }
+        /**
+         * This is the second remapping method
+         * This basically remaps all resources such as mixins, manifestJars, etc.
+         * This method also finds all the forge/neoforge mixins for you if not detected
+         * Every file is only classified once and then renamed and remapped based on that
+         *
+         * @param temps The extracted loader jar
+         * @param loader The loader, the mixins that are found are set on it if it's forge like
+         * @param keptNestedJars The nested jars of the earlier loaders, see {@link #shareNestedJar(Map, LoaderInput, String, String, byte[])}
+         * @throws IOException If something went wrong
+         */
+        private void remapResources(File temps, LoaderInput loader, ForkJoinPool pool, Map<String, String> keptNestedJars) throws IOException {
+            ResourceIndex index = ResourceIndex.of(temps, group);
+
+            // The nested jars are relocated on the pool while the rest of the resources are remapped
+            NestedJarRelocator nestedJarRelocator = new NestedJarRelocator(loaderRelocations.get(loader.getName()), pool);
+            nestedJarRelocator.setCompressionLevel(compressionLevel);
+            nestedJarRelocator.setDuplicates(removeDuplicateRelocations);
+            Map<String, byte[]> nestedJars = new LinkedHashMap<>();
+            Map<String, ForkJoinTask<byte[]>> relocatedNestedJars = new HashMap<>();
+            for (Map.Entry<String, ResourceIndex.Kind> resource : index.getKinds().entrySet()) {
+                if (resource.getValue() != ResourceIndex.Kind.NESTED_JAR) continue;
+                byte[] bytes = Files.readAllBytes(new File(temps, resource.getKey()).toPath());
+                nestedJars.put(resource.getKey(), bytes);
+                relocatedNestedJars.put(resource.getKey(), nestedJarRelocator.submit(bytes));
+            }
 
-                for (File file : listAllMixins(fabricTemps, true)) {
-                    File remappedFile = new File(file.getParentFile(), "fabric-" + file.getName());
-                    fabricRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
+            List<String> mixins = new ArrayList<>();
+            Map<String, String> renames = renameResources(index, loader, mixins);
+            for (Map.Entry<String, String> rename : renames.entrySet()) {
+                new File(temps, rename.getKey()).renameTo(new File(temps, rename.getValue()));
+            }
+            if (loader.isForge()) loader.setMixins(mixins);
+
+            // The text can only point to the nested jars of an earlier loader once those are relocated, so this waits for them
+            for (Map.Entry<String, byte[]> nestedJar : nestedJars.entrySet()) {
+                byte[] relocated = NestedJarRelocator.join(relocatedNestedJars.get(nestedJar.getKey()));
+                String renamedPath = renames.getOrDefault(nestedJar.getKey(), nestedJar.getKey());
+                File file = new File(temps, renamedPath);
+                if (shareNestedJar(keptNestedJars, loader, nestedJar.getKey(), renamedPath, relocated)) {
+                    Files.delete(file.toPath());
+                } else if (relocated != nestedJar.getValue()) {
+                    Files.write(file.toPath(), relocated);
                 }
-
-                for (File file : listAllAccessWideners(fabricTemps)) {
-                    File remappedFile = new File(file.getParentFile(), "fabric-" + file.getName());
-                    fabricRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
+            }
+            reportNestedJars(loader, nestedJarRelocator);
+
+            MergeReport.Phase phase = report.phase("resource remap").entries(index.getKinds().size()).relocations(renames.size());
+            TextReplacer replacer = textReplacer(loader.getRelocations());
+            for (Map.Entry<String, ResourceIndex.Kind> resource : index.getKinds().entrySet()) {
+                if (!resource.getValue().isText()) continue;
+                File file = new File(temps, renames.getOrDefault(resource.getKey(), resource.getKey()));
+                byte[] text = Files.readAllBytes(file.toPath());
+                phase.read(text.length);
+                byte[] replaced = replacer.replace(text);
+                if (replaced != text) {
+                    Files.write(file.toPath(), replaced);
+                    phase.written(replaced.length).relocations(1);
                 }
-
-                fabricRelocations.put(group, "fabric." + group);
-                fabricRelocations.put(group.replace(".", "/"), "fabric/" + group.replace(".", "/"));
-                replaceAllTextFiles(fabricTemps, fabricRelocations);
             }
+        }
 
-            if (quiltRelocations == null) quiltRelocations = new HashMap<>();
-            if (quiltJar != null && quiltJar.exists()) {
-                for (File file : manifestJars(quiltTemps)) {
-                    File remappedFile = new File(file.getParentFile(), "quilt-" + file.getName());
-                    quiltRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
-                }
+        /**
+         * Lets loaders that ship the exact same library share a single copy of it, such as fabric and quilt or forge and neoforge
+         * Only nested jars in the same directory are shared, since the metadata of the loaders only refers to them by their file name
+         *
+         * @param keptNestedJars The path of every nested jar that's kept so far by its directory and hash
+         * @param loader The loader the nested jar is from, if it's shared its relocations point to the kept copy instead
+         * @param path The original path of the nested jar
+         * @param renamedPath The path the nested jar was renamed to
+         * @param relocated The relocated nested jar
+         * @return If an earlier loader has the same nested jar, so this one doesn't have to be kept
+         */
+        private boolean shareNestedJar(Map<String, String> keptNestedJars, LoaderInput loader, String path, String renamedPath, byte[] relocated) {
+            String kept = keptNestedJars.putIfAbsent(FilenameUtils.getPath(renamedPath) + MergeCache.hash(relocated), renamedPath);
+            if (kept == null) return false;
+
+            loader.getRelocations().put(FilenameUtils.getName(path), FilenameUtils.getName(kept));
+            report.phase("shared nested jars").entries(1);
+            logger.debug(loader.getName() + " ships the same " + FilenameUtils.getName(path) + " as " + kept + ", only that copy is kept.");
+            return true;
+        }
 
-                for (File file : listAllPlatformServices(quiltTemps, group)) {
-                    File remappedFile = new File(file.getParentFile(), "quilt." + file.getName());
-                    quiltRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
-                }
+        /**
+         * Records how many nested jars of a loader had to be relocated
+         */
+        private void reportNestedJars(LoaderInput loader, NestedJarRelocator nestedJarRelocator) {
+            report.phase("nested jars").entries(nestedJarRelocator.getJars()).relocations(nestedJarRelocator.getRelocations());
+            if (nestedJarRelocator.getJars() > 0) logger.debug("Relocated " + nestedJarRelocator.getRelocatedJars() + " of the " + nestedJarRelocator.getJars() + " nested jars of " + loader.getName() + ".");
+        }
 
-                for (File file : listAllMixins(quiltTemps, true)) {
-                    File remappedFile = new File(file.getParentFile(), "quilt-" + file.getName());
-                    quiltRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
+        /**
+         * Works out which resources have to be renamed so they don't clash with the resources of the other loaders
+         * The renamed resources and the group are added to the relocations
+         *
+         * @param index The resources of the loader
+         * @param loader The loader, forge like loaders have their access wideners left alone and their mixins collected
+         * @param mixins The list to add the renamed mixins to
+         * @return The new path of every resource that has to be renamed
+         */
+        private Map<String, String> renameResources(ResourceIndex index, LoaderInput loader, List<String> mixins) {
+            String name = loader.getName();
+            boolean forge = loader.isForge();
+            Map<String, String> relocations = loader.getRelocations();
+            Map<String, String> renames = new HashMap<>();
+            for (Map.Entry<String, ResourceIndex.Kind> resource : index.getKinds().entrySet()) {
+                String path = resource.getKey();
+                String fileName = FilenameUtils.getName(path);
+
+                String remappedName = null;
+                switch (resource.getValue()) {
+                    case NESTED_JAR:
+                    case REFMAP:
+                        remappedName = name + "-" + fileName;
+                        break;
+                    case SERVICE:
+                        remappedName = name + "." + fileName;
+                        break;
+                    case MIXIN:
+                        remappedName = name + "-" + fileName;
+                        if (forge) mixins.add(remappedName);
+                        break;
+                    case ACCESS_WIDENER:
+                        if (!forge) remappedName = name + "-" + fileName;
+                        break;
                 }
 
-                for (File file : listAllAccessWideners(quiltTemps)) {
-                    File remappedFile = new File(file.getParentFile(), "quilt-" + file.getName());
-                    quiltRelocations.put(file.getName(), remappedFile.getName());
-                    file.renameTo(remappedFile);
+                if (remappedName != null) {
+                    relocations.put(fileName, remappedName);
+                    renames.put(path, FilenameUtils.getPath(path) + remappedName);
                 }
-
-                quiltRelocations.put(group, "quilt." + group);
-                quiltRelocations.put(group.replace(".", "/"), "quilt/" + group.replace(".", "/"));
-                replaceAllTextFiles(quiltTemps, quiltRelocations);
             }
 
-            for (Map.Entry<ForgixMergeExtension.CustomContainer, Map<File, File>> entry : customContainerTemps.entrySet()) {
-                for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                    if (entry2.getKey() != null && entry2.getKey().exists()) {
-                        if (entry.getKey().getAdditionalRelocates() == null) entry.getKey()._setAdditionalRelocates(new HashMap<>());
-                        File customTemps = entry2.getValue();
-                        String name = entry.getKey().getProjectName();
-
-                        for (File file : manifestJars(customTemps)) {
-                            File remappedFile = new File(file.getParentFile(), name + "-" + file.getName());
-                            entry.getKey().getAdditionalRelocates().put(file.getName(), remappedFile.getName());
-                            file.renameTo(remappedFile);
-                        }
-
-                        for (File file : listAllPlatformServices(customTemps, group)) {
-                            File remappedFile = new File(file.getParentFile(), name + "." + file.getName());
-                            entry.getKey().getAdditionalRelocates().put(file.getName(), remappedFile.getName());
-                            file.renameTo(remappedFile);
-                        }
+            relocations.put(group, name + "." + group);
+            relocations.put(group.replace(".", "/"), name + "/" + group.replace(".", "/"));
+            return renames;
+        }
 
-                        for (File file : listAllMixins(customTemps, true)) {
-                            File remappedFile = new File(file.getParentFile(), name + "-" + file.getName());
-                            entry.getKey().getAdditionalRelocates().put(file.getName(), remappedFile.getName());
-                            file.renameTo(remappedFile);
-                        }
 
-                        for (File file : listAllAccessWideners(customTemps)) {
-                            File remappedFile = new File(file.getParentFile(), name + "-" + file.getName());
-                            entry.getKey().getAdditionalRelocates().put(file.getName(), remappedFile.getName());
-                            file.renameTo(remappedFile);
-                        }
+        /**
+         * Looks for the packages that every loader has the same copy of in the relocated loaders
+         * Depending on {@link #duplicateDetection} these are either logged or added to the duplicates that are removed
+         *
+         * @param detector The detector that every relocated loader was added to
+         */
+        private void detectDuplicates(DuplicateDetector detector) {
+            List<String> found = new ArrayList<>();
+            for (String duplicate : detector.find()) {
+                if (removeDuplicates == null || !removeDuplicates.contains(duplicate)) found.add(duplicate);
+            }
+            report.phase("duplicate detection").entries(detector.getEntries());
+            if (found.isEmpty()) {
+                logger.info("No packages were found that are the same in every loader.");
+                return;
+            }
 
-                        entry.getKey().getAdditionalRelocates().put(group, name + "." + group);
-                        entry.getKey().getAdditionalRelocates().put(group.replace(".", "/"), name + "/" + group.replace(".", "/"));
-                        replaceAllTextFiles(customTemps, entry.getKey().getAdditionalRelocates());
-                    }
-                }
+            if (duplicateDetection == DuplicateDetector.Mode.REPORT) {
+                logger.warn("These packages are the same in every loader that has them and can be removed with removeDuplicate: " + String.join(", ", found));
+            } else {
+                logger.info("Removing the packages that are the same in every loader that has them: " + String.join(", ", found));
+                List<String> duplicates = new ArrayList<>();
+                if (removeDuplicates != null) duplicates.addAll(removeDuplicates);
+                duplicates.addAll(found);
+                removeDuplicates = duplicates;
             }
         }
 
-
         Map<String, String> removeDuplicateRelocationResources = new HashMap<>();
 
-        private void setupDuplicates() {
+        void setupDuplicates() {
             if (removeDuplicates != null) {
                 for (String duplicate : removeDuplicates) {
                     String duplicatePath = duplicate.replace(".", "/");
-
-                    if (forgeJar != null && forgeJar.exists()) {
-                        removeDuplicateRelocations.put("forge." + duplicate, duplicate);
-                        removeDuplicateRelocationResources.put("forge/" + duplicatePath, duplicatePath);
-                    }
-
-                    if (neoforgeJar != null && neoforgeJar.exists()) {
-                        removeDuplicateRelocations.put("neoforge." + duplicate, duplicate);
-                        removeDuplicateRelocationResources.put("neoforge/" + duplicatePath, duplicatePath);
-                    }
-
-                    if (fabricJar != null && fabricJar.exists()) {
-                        removeDuplicateRelocations.put("fabric." + duplicate, duplicate);
-                        removeDuplicateRelocationResources.put("fabric/" + duplicatePath, duplicatePath);
-                    }
-
-                    if (quiltJar != null && quiltJar.exists()) {
-                        removeDuplicateRelocations.put("quilt." + duplicate, duplicate);
-                        removeDuplicateRelocationResources.put("quilt/" + duplicatePath, duplicatePath);
-                    }
-
-                    for (Map.Entry<ForgixMergeExtension.CustomContainer, Map<File, File>> entry : customContainerTemps.entrySet()) {
-                        for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                            if (entry2.getKey() != null && entry2.getKey().exists()) {
-                                String name = entry.getKey().getProjectName();
-                                removeDuplicateRelocations.put(name + "." + duplicate, duplicate);
-                                removeDuplicateRelocationResources.put(name + "/" + duplicatePath, duplicatePath);
-                            }
-                        }
+                    for (LoaderInput loader : existingLoaders()) {
+                        removeDuplicateRelocations.put(loader.getName() + "." + duplicate, duplicate);
+                        removeDuplicateRelocationResources.put(loader.getName() + "/" + duplicatePath, duplicatePath);
                     }
                 }
 
@@ -788,64 +1201,21 @@ public class Forgix {
             }
         }
 
-        /**
-         * This method removes the duplicates specified in resources
-         */
-        private void removeDuplicateResources(File mergedTemps) throws IOException {
-            if (removeDuplicates != null) {
-                try (Stream<Path> pathStream = Files.list(new File(mergedTemps.getParentFile(), "duplicate-temps").toPath())) {
-                    for (Path path : pathStream.collect(Collectors.toList())) {
-                        File file = path.toFile();
-                        if (file.isDirectory()) {
-                            FileUtils.copyDirectory(file, mergedTemps);
-                        } else {
-                            FileUtils.copyFileToDirectory(file, mergedTemps);
-                        }
-                    }
-                }
-                replaceAllTextFiles(mergedTemps, removeDuplicateRelocationResources);
-            }
-        }
-
         /**
          * This method removes the duplicates specified
+         * Every loader prefix of every duplicate is collapsed into the shared package in a single pass over the jar
          */
-        private void removeDuplicate(File mergedJar, File mergedOutputJar, File mergedTemps) throws IOException {
-            // Have to do it this way cause there's a bug with jar-relocator where it doesn't accept duplicate values
-            while (!removeDuplicateRelocations.isEmpty()) {
-                Map.Entry<String, String> removeDuplicate = removeDuplicateRelocations.entrySet().stream().findFirst().get();
-                try (ZipFile zipFile = new ZipFile(mergedJar)) {
-                    try {
-                        zipFile.extractFile(removeDuplicate.getValue().replace(".", "/") + "/", new File(mergedTemps.getParentFile(), "duplicate-temps" + "/").getPath());
-                    } catch (ZipException e) {
-                        if (!e.getType().equals(ZipException.Type.FILE_NOT_FOUND)) {
-                            throw e;
-                        }
-                    }
-                }
-
-                if (mergedOutputJar.exists()) mergedOutputJar.delete();
-                mergedOutputJar.createNewFile();
-
-                List<Relocation> relocations = new ArrayList<>();
-
-                relocations.add(new Relocation(removeDuplicate.getKey(), removeDuplicate.getValue()));
-
-                JarRelocator jarRelocator = new JarRelocator(mergedJar, mergedOutputJar, relocations);
-                jarRelocator.run();
-
-                Files.move(mergedOutputJar.toPath(), mergedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-                if (mergedOutputJar.exists()) mergedOutputJar.delete();
-                removeDuplicateRelocations.remove(removeDuplicate.getKey(), removeDuplicate.getValue());
-
-                try (ZipFile zipFile = new ZipFile(mergedJar)) {
-                    zipFile.extractFile(removeDuplicate.getValue().replace(".", "/") + "/", new File(mergedTemps.getParentFile(), "duplicate-temps" + File.separator + removeDuplicate.getValue() + File.separator).getPath());
-                    if (removeDuplicateRelocations.containsValue(removeDuplicate.getValue())) {
-                        zipFile.removeFile(removeDuplicate.getValue().replace(".", "/") + "/");
-                    }
-                }
-            }
+        void removeDuplicate(File mergedJar, File mergedOutputJar) throws IOException {
+            if (removeDuplicateRelocations.isEmpty()) return;
+
+            long start = System.nanoTime();
+            if (mergedOutputJar.exists()) mergedOutputJar.delete();
+            Relocator relocator = new Relocator(removeDuplicateRelocations);
+            relocator.setCompressionLevel(compressionLevel);
+            relocator.setReproducible(reproducible);
+            relocator.relocateJar(mergedJar, mergedOutputJar, textReplacer(removeDuplicateRelocationResources));
+            Files.move(mergedOutputJar.toPath(), mergedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            report.phase("duplicate removal").time(start).read(relocator.getBytesRead()).written(relocator.getBytesWritten()).entries(relocator.getEntries()).relocations(relocator.getRelocations());
         }
     }
 }
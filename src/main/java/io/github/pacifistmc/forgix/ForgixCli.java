@@ -0,0 +1,245 @@
+package io.github.pacifistmc.forgix;
+
+import io.github.pacifistmc.forgix.utils.DuplicateDetector;
+import io.github.pacifistmc.forgix.utils.MemoryCache;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Merges jars without Gradle, every "--merge" starts another merge and all of them run at the same time in this JVM
+ * The logs go through slf4j, so put a binding such as slf4j-simple on the classpath to see them
+ */
+public class ForgixCli {
+    private static final String USAGE = String.join("\n",
+            "Usage: java -cp forgix.jar:slf4j-api.jar io.github.pacifistmc.forgix.ForgixCli [options] --merge <merge options> [--merge <merge options> ...]",
+            "",
+            "Options:",
+            "  --parallelism <threads>          How many threads the merges share, the amount of processors by default",
+            "  --temp-dir <directory>           Where the merges happen, every merge gets its own directory in here, .forgix by default",
+            "  --cache                          Keep the merged and relocated jars of every merge in its temp directory",
+            "  --memory-cache <megabytes>       How much memory the merges share for jar indexes, relocations and classes, 256 by default",
+            "",
+            "Merge options:",
+            "  --group <group>                  The group of the mod (required)",
+            "  --output <jar>                   Where the merged jar goes (required)",
+            "  --forge <jar>, --neoforge <jar>, --fabric <jar>, --quilt <jar>",
+            "  --custom <name>=<jar>            A custom loader, this can be used more than once",
+            "  --relocate <loader>:<from>=<to>  An additional relocation of a loader",
+            "  --mixin <loader>:<mixin>         A mixin of a forge like loader",
+            "  --remove-duplicate <package>     A package that every loader has a copy of",
+            "  --duplicate-detection <mode>     none, report or remove",
+            "  --streaming, --reproducible",
+            "  --compression-level <level>      From 0 to 9, or -1 for the default",
+            "  --in-memory-threshold <megabytes>");
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+    }
+
+    /**
+     * @param args The arguments, see {@link #USAGE}
+     * @return The exit code
+     */
+    static int run(String[] args) {
+        Logger logger = LoggerFactory.getLogger(Forgix.class);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        File tempDir = new File(".forgix");
+        boolean cache = false;
+        int memoryCacheSize = 256;
+        List<MergeArguments> merges = new ArrayList<>();
+
+        Iterator<String> arguments = Arrays.asList(args).iterator();
+        while (arguments.hasNext()) {
+            String argument = arguments.next();
+            switch (argument) {
+                case "--help":
+                    System.out.println(USAGE);
+                    return 0;
+                case "--parallelism":
+                    parallelism = Integer.parseInt(value(argument, arguments));
+                    break;
+                case "--temp-dir":
+                    tempDir = new File(value(argument, arguments));
+                    break;
+                case "--cache":
+                    cache = true;
+                    break;
+                case "--memory-cache":
+                    memoryCacheSize = Integer.parseInt(value(argument, arguments));
+                    break;
+                case "--merge":
+                    merges.add(new MergeArguments());
+                    break;
+                default:
+                    // The options of a single merge don't need "--merge" in front of them
+                    if (merges.isEmpty()) merges.add(new MergeArguments());
+                    merges.get(merges.size() - 1).add(argument, arguments);
+                    break;
+            }
+        }
+        if (merges.isEmpty()) throw new IllegalArgumentException("Nothing to merge!");
+
+        List<MergeSpec> specs = new ArrayList<>();
+        Map<MergeSpec, File> outputs = new HashMap<>();
+        for (MergeArguments merge : merges) {
+            MergeSpec spec = merge.build(tempDir);
+            specs.add(spec);
+            outputs.put(spec, merge.output);
+        }
+
+        MergeBatch batch = new MergeBatch(specs, logger);
+        batch.setParallelism(parallelism);
+        batch.setCache(cache);
+        if (memoryCacheSize > 0) batch.setMemoryCache(new MemoryCache(memoryCacheSize * 1024L * 1024L));
+
+        int failed = 0;
+        for (MergeBatch.Result result : batch.merge()) {
+            File output = outputs.get(result.getSpec());
+            if (!result.isSuccessful()) {
+                System.err.println("Merging " + output + " failed: " + result.getFailure());
+                failed++;
+                continue;
+            }
+
+            try {
+                File parent = output.getAbsoluteFile().getParentFile();
+                if (parent != null) parent.mkdirs();
+                Files.move(result.getMergedJar().toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("Moving the merged jar to " + output + " failed: " + e);
+                failed++;
+                continue;
+            }
+            System.out.println("Merged " + output);
+            System.out.println(result.getReport().getSummary());
+        }
+        // Every merge that succeeded is already in place, even if others failed
+        if (failed > 0) {
+            System.err.println(failed + " of " + merges.size() + " merges failed.");
+            return 1;
+        }
+        return 0;
+    }
+
+    private static String value(String option, Iterator<String> arguments) {
+        if (!arguments.hasNext()) throw new IllegalArgumentException("\"" + option + "\" needs a value!");
+        return arguments.next();
+    }
+
+    /**
+     * The options of a single merge, these are only turned into a {@link MergeSpec} once every option is known
+     */
+    private static class MergeArguments {
+        String group;
+        File output;
+        final Map<String, File> jars = new LinkedHashMap<>();
+        final Map<String, File> customJars = new LinkedHashMap<>();
+        final Map<String, Map<String, String>> relocations = new HashMap<>();
+        final Map<String, List<String>> mixins = new HashMap<>();
+        List<String> removeDuplicates;
+        DuplicateDetector.Mode duplicateDetection = DuplicateDetector.Mode.NONE;
+        boolean streaming;
+        boolean reproducible;
+        int compressionLevel = -1;
+        Long inMemoryThreshold;
+
+        void add(String argument, Iterator<String> arguments) {
+            switch (argument) {
+                case "--group":
+                    group = value(argument, arguments);
+                    break;
+                case "--output":
+                    output = new File(value(argument, arguments));
+                    break;
+                case "--forge":
+                case "--neoforge":
+                case "--fabric":
+                case "--quilt":
+                    jars.put(argument.substring(2), new File(value(argument, arguments)));
+                    break;
+                case "--custom": {
+                    String[] custom = split(argument, value(argument, arguments), '=');
+                    customJars.put(custom[0], new File(custom[1]));
+                    break;
+                }
+                case "--relocate": {
+                    String[] relocate = split(argument, value(argument, arguments), ':');
+                    String[] packages = split(argument, relocate[1], '=');
+                    relocations.computeIfAbsent(relocate[0], loader -> new HashMap<>()).put(packages[0], packages[1]);
+                    break;
+                }
+                case "--mixin": {
+                    String[] mixin = split(argument, value(argument, arguments), ':');
+                    mixins.computeIfAbsent(mixin[0], loader -> new ArrayList<>()).add(mixin[1]);
+                    break;
+                }
+                case "--remove-duplicate":
+                    if (removeDuplicates == null) removeDuplicates = new ArrayList<>();
+                    removeDuplicates.add(value(argument, arguments));
+                    break;
+                case "--duplicate-detection":
+                    duplicateDetection = DuplicateDetector.Mode.valueOf(value(argument, arguments).toUpperCase(Locale.ROOT));
+                    break;
+                case "--streaming":
+                    streaming = true;
+                    break;
+                case "--reproducible":
+                    reproducible = true;
+                    break;
+                case "--compression-level":
+                    compressionLevel = Integer.parseInt(value(argument, arguments));
+                    break;
+                case "--in-memory-threshold":
+                    inMemoryThreshold = Long.parseLong(value(argument, arguments)) * 1024L * 1024L;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option \"" + argument + "\"!");
+            }
+        }
+
+        private static String[] split(String option, String value, char separator) {
+            int index = value.indexOf(separator);
+            if (index <= 0) throw new IllegalArgumentException("\"" + option + "\" has to look like a" + separator + "b, not " + value + "!");
+            return new String[]{value.substring(0, index), value.substring(index + 1)};
+        }
+
+        MergeSpec build(File tempDir) {
+            if (group == null || output == null) throw new IllegalArgumentException("Every merge needs a \"--group\" and an \"--output\"!");
+            for (File jar : jars.values()) if (!jar.isFile()) throw new IllegalArgumentException(jar + " doesn't exist!");
+            for (File jar : customJars.values()) if (!jar.isFile()) throw new IllegalArgumentException(jar + " doesn't exist!");
+
+            String mergedJarName = output.getName();
+            MergeSpec.Builder builder = new MergeSpec.Builder(group, new File(tempDir, FilenameUtils.removeExtension(mergedJarName)), mergedJarName)
+                    .removeDuplicates(removeDuplicates)
+                    .duplicateDetection(duplicateDetection)
+                    .streaming(streaming)
+                    .reproducible(reproducible)
+                    .compressionLevel(compressionLevel);
+            if (inMemoryThreshold != null) builder.inMemoryThreshold(inMemoryThreshold);
+
+            // The loaders are merged in the same order as the Gradle plugin merges them
+            if (jars.containsKey("forge")) builder.loader(LoaderInput.forge(jars.get("forge"), relocations.get("forge"), mixins.get("forge")));
+            if (jars.containsKey("neoforge")) builder.loader(LoaderInput.neoforge(jars.get("neoforge"), relocations.get("neoforge"), mixins.get("neoforge")));
+            if (jars.containsKey("fabric")) builder.loader(LoaderInput.fabric(jars.get("fabric"), relocations.get("fabric")));
+            if (jars.containsKey("quilt")) builder.loader(LoaderInput.quilt(jars.get("quilt"), relocations.get("quilt")));
+            for (Map.Entry<String, File> customJar : customJars.entrySet()) {
+                builder.loader(LoaderInput.custom(customJar.getKey(), customJar.getValue(), relocations.get(customJar.getKey())));
+            }
+            return builder.build();
+        }
+    }
+}
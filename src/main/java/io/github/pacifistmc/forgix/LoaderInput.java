@@ -0,0 +1,124 @@
+package io.github.pacifistmc.forgix;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single loader jar that gets merged, this is everything the merge needs to know about it
+ * The merge treats every loader the same way, the only difference between them are the values in here
+ */
+public class LoaderInput {
+    private final String name;
+    private final String title;
+    private final boolean forge;
+    private final boolean custom;
+    private File jar;
+    private final Map<String, String> relocations;
+    @Nullable
+    private List<String> mixins;
+
+    /**
+     * @param name The name of the loader, the group and the resources of the loader are prefixed with this
+     * @param title The name of the loader that's shown in the logs
+     * @param jar The jar of the loader
+     * @param relocations The additional relocations of the loader or null if there are none
+     * @param mixins The mixins of the loader or null to detect them, only forge like loaders have these in their manifest
+     * @param forge If the loader is forge like, these load mixins from the manifest and use access transformers instead of access wideners
+     * @param custom If the loader is a custom container
+     */
+    public LoaderInput(String name, String title, @Nullable File jar, @Nullable Map<String, String> relocations, @Nullable List<String> mixins, boolean forge, boolean custom) {
+        this.name = name;
+        this.title = title;
+        this.jar = jar;
+        // The merge adds the renamed resources to the relocations, so it needs a map it can change
+        this.relocations = relocations == null ? new HashMap<>() : new HashMap<>(relocations);
+        this.mixins = mixins == null ? null : new ArrayList<>(mixins);
+        this.forge = forge;
+        this.custom = custom;
+    }
+
+    public static LoaderInput forge(@Nullable File jar, @Nullable Map<String, String> relocations, @Nullable List<String> mixins) {
+        return new LoaderInput("forge", "Forge", jar, relocations, mixins, true, false);
+    }
+
+    public static LoaderInput neoforge(@Nullable File jar, @Nullable Map<String, String> relocations, @Nullable List<String> mixins) {
+        return new LoaderInput("neoforge", "NeoForge", jar, relocations, mixins, true, false);
+    }
+
+    public static LoaderInput fabric(@Nullable File jar, @Nullable Map<String, String> relocations) {
+        return new LoaderInput("fabric", "Fabric", jar, relocations, null, false, false);
+    }
+
+    public static LoaderInput quilt(@Nullable File jar, @Nullable Map<String, String> relocations) {
+        return new LoaderInput("quilt", "Quilt", jar, relocations, null, false, false);
+    }
+
+    public static LoaderInput custom(String projectName, @Nullable File jar, @Nullable Map<String, String> relocations) {
+        return new LoaderInput(projectName, projectName, jar, relocations, null, false, true);
+    }
+
+    /**
+     * @return A copy of the loader as it is right now, the merge can change the copy without touching this one
+     */
+    LoaderInput copy() {
+        return new LoaderInput(name, title, jar, relocations, mixins, forge, custom);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public boolean isForge() {
+        return forge;
+    }
+
+    public boolean isCustom() {
+        return custom;
+    }
+
+    /**
+     * @return The jar of the loader, once the loader is relocated this is the relocated jar
+     */
+    @Nullable
+    public File getJar() {
+        return jar;
+    }
+
+    void setJar(File jar) {
+        this.jar = jar;
+    }
+
+    /**
+     * @return If the jar of the loader is there, loaders without a jar are skipped
+     */
+    public boolean exists() {
+        return jar != null && jar.exists();
+    }
+
+    /**
+     * @return The relocations of the loader, the merge adds the renamed resources and the group to these
+     */
+    public Map<String, String> getRelocations() {
+        return relocations;
+    }
+
+    /**
+     * @return The mixins of the loader, after the resources are remapped these are the ones that were found
+     */
+    @Nullable
+    public List<String> getMixins() {
+        return mixins;
+    }
+
+    void setMixins(@Nullable List<String> mixins) {
+        this.mixins = mixins;
+    }
+}
@@ -0,0 +1,157 @@
+package io.github.pacifistmc.forgix;
+
+import io.github.pacifistmc.forgix.utils.MemoryCache;
+import io.github.pacifistmc.forgix.utils.MergeCache;
+import io.github.pacifistmc.forgix.utils.MergeReport;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Merges many mods at the same time, such as every mod of a monorepo
+ * Every merge runs on the same work stealing pool, so a merge that's waiting on its jars leaves the threads to the others, and they all share the same memory cache
+ */
+public class MergeBatch {
+    private final List<MergeSpec> specs;
+    private final Logger logger;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean cache;
+    @Nullable
+    private MemoryCache memoryCache;
+
+    /**
+     * @param specs The merges to run, every one of them needs its own temp directory
+     * @param logger The logger that every merge logs to
+     */
+    public MergeBatch(List<MergeSpec> specs, Logger logger) {
+        Set<File> tempDirs = new HashSet<>();
+        for (MergeSpec spec : specs) {
+            if (!tempDirs.add(spec.getTempDir().getAbsoluteFile())) throw new IllegalArgumentException("Every merge needs its own temp directory, " + spec.getTempDir() + " is used more than once!");
+        }
+        this.specs = new ArrayList<>(specs);
+        this.logger = logger;
+    }
+
+    /**
+     * @param parallelism How many threads the merges share
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("\"parallelism\" has to be at least 1!");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param cache If every merge should keep its own {@link MergeCache} in its temp directory
+     */
+    public void setCache(boolean cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param memoryCache The cache that every merge shares, or null to work everything out again
+     */
+    public void setMemoryCache(@Nullable MemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Runs every merge, a merge that fails doesn't stop the others
+     * @return The result of every merge in the order of the specs, including the ones that failed
+     */
+    public List<Result> merge() {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Forgix.Merge> merges = new ArrayList<>();
+            List<ForkJoinTask<File>> tasks = new ArrayList<>();
+            for (MergeSpec spec : specs) {
+                Forgix.Merge merge = new Forgix.Merge(spec, logger);
+                merge.setParallelism(parallelism);
+                merge.setSharedPool(pool);
+                merge.setMemoryCache(memoryCache);
+                if (cache) merge.setCache(new MergeCache(new File(spec.getTempDir(), "cache")));
+                merges.add(merge);
+                tasks.add(pool.submit(() -> merge.merge(false)));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    results.add(new Result(specs.get(i), tasks.get(i).join(), null, merges.get(i).getReport()));
+                } catch (RuntimeException e) {
+                    Throwable cause = unwrap(e);
+                    logger.error("Merging " + specs.get(i).getMergedJarName() + " failed.", cause);
+                    results.add(new Result(specs.get(i), null, cause, merges.get(i).getReport()));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // The pool and the merge itself wrap what actually went wrong in plain runtime exceptions
+    private static Throwable unwrap(Throwable throwable) {
+        while ((throwable.getClass() == RuntimeException.class || throwable instanceof UncheckedIOException) && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    /**
+     * A merge that's finished, either with a merged jar or with the reason it failed
+     */
+    public static class Result {
+        private final MergeSpec spec;
+        @Nullable
+        private final File mergedJar;
+        @Nullable
+        private final Throwable failure;
+        private final MergeReport report;
+
+        Result(MergeSpec spec, @Nullable File mergedJar, @Nullable Throwable failure, MergeReport report) {
+            this.spec = spec;
+            this.mergedJar = mergedJar;
+            this.failure = failure;
+            this.report = report;
+        }
+
+        public MergeSpec getSpec() {
+            return spec;
+        }
+
+        /**
+         * @return If the merge succeeded
+         */
+        public boolean isSuccessful() {
+            return failure == null;
+        }
+
+        /**
+         * @return The merged jar, this is in the temp directory of the spec, or null if the merge failed
+         */
+        @Nullable
+        public File getMergedJar() {
+            return mergedJar;
+        }
+
+        /**
+         * @return Why the merge failed, or null if it succeeded
+         */
+        @Nullable
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return The report of the merge, this only covers what happened before the merge failed
+         */
+        public MergeReport getReport() {
+            return report;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.pacifistmc.forgix;
+
+import io.github.pacifistmc.forgix.utils.DuplicateDetector;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Everything that decides what a merge puts into the merged jar, this never changes once it's built
+ * A {@link Forgix.Merge} changes its loaders while it's merging, so every merge gets its own copy of them and the same spec can be merged again or at the same time
+ * How the merge runs, such as the parallelism and the caches, isn't part of this
+ */
+public class MergeSpec {
+    private final List<LoaderInput> loaders;
+    private final String group;
+    private final File tempDir;
+    private final String mergedJarName;
+    @Nullable
+    private final List<String> removeDuplicates;
+    private final boolean streaming;
+    private final DuplicateDetector.Mode duplicateDetection;
+    private final int compressionLevel;
+    private final boolean reproducible;
+    private final long inMemoryThreshold;
+
+    private MergeSpec(Builder builder) {
+        List<LoaderInput> loaders = new ArrayList<>();
+        for (LoaderInput loader : builder.loaders) loaders.add(loader.copy());
+        this.loaders = Collections.unmodifiableList(loaders);
+        this.group = builder.group;
+        this.tempDir = builder.tempDir;
+        this.mergedJarName = builder.mergedJarName;
+        this.removeDuplicates = builder.removeDuplicates == null ? null : Collections.unmodifiableList(new ArrayList<>(builder.removeDuplicates));
+        this.streaming = builder.streaming;
+        this.duplicateDetection = builder.duplicateDetection;
+        this.compressionLevel = builder.compressionLevel;
+        this.reproducible = builder.reproducible;
+        this.inMemoryThreshold = builder.inMemoryThreshold;
+    }
+
+    /**
+     * @return A new copy of the loaders for a merge to change
+     */
+    public List<LoaderInput> getLoaders() {
+        List<LoaderInput> copies = new ArrayList<>();
+        for (LoaderInput loader : loaders) copies.add(loader.copy());
+        return copies;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public File getTempDir() {
+        return tempDir;
+    }
+
+    public String getMergedJarName() {
+        return mergedJarName;
+    }
+
+    @Nullable
+    public List<String> getRemoveDuplicates() {
+        return removeDuplicates;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public DuplicateDetector.Mode getDuplicateDetection() {
+        return duplicateDetection;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public boolean isReproducible() {
+        return reproducible;
+    }
+
+    public long getInMemoryThreshold() {
+        return inMemoryThreshold;
+    }
+
+    /**
+     * Builds a {@link MergeSpec}, everything that isn't set keeps the same default as {@link Forgix.Merge}
+     */
+    public static class Builder {
+        private final List<LoaderInput> loaders = new ArrayList<>();
+        private final String group;
+        private final File tempDir;
+        private final String mergedJarName;
+        @Nullable
+        private List<String> removeDuplicates;
+        private boolean streaming;
+        private DuplicateDetector.Mode duplicateDetection = DuplicateDetector.Mode.NONE;
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private boolean reproducible;
+        private long inMemoryThreshold = 4L * 1024 * 1024;
+
+        /**
+         * @param group The group of the mod, this is what gets prefixed with the name of every loader
+         * @param tempDir The directory to merge in, merges that run at the same time need different directories
+         * @param mergedJarName The name of the merged jar
+         */
+        public Builder(String group, File tempDir, String mergedJarName) {
+            this.group = group;
+            this.tempDir = tempDir;
+            this.mergedJarName = mergedJarName;
+        }
+
+        /**
+         * @param loader A loader to merge, if multiple loaders have the same entry then the one that was added last wins
+         */
+        public Builder loader(LoaderInput loader) {
+            loaders.add(loader);
+            return this;
+        }
+
+        /**
+         * @param removeDuplicates The packages that every loader has a copy of that should only be in the merged jar once
+         */
+        public Builder removeDuplicates(@Nullable List<String> removeDuplicates) {
+            this.removeDuplicates = removeDuplicates;
+            return this;
+        }
+
+        public Builder streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        public Builder duplicateDetection(DuplicateDetector.Mode duplicateDetection) {
+            this.duplicateDetection = duplicateDetection;
+            return this;
+        }
+
+        public Builder compressionLevel(int compressionLevel) {
+            if (compressionLevel < -1 || compressionLevel > 9) throw new IllegalArgumentException("\"compressionLevel\" has to be between 0 and 9, or -1 for the default!");
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        public Builder reproducible(boolean reproducible) {
+            this.reproducible = reproducible;
+            return this;
+        }
+
+        /**
+         * @param inMemoryThreshold The total size in bytes the loader jars can have to be merged completely in memory, or 0 to never do that
+         */
+        public Builder inMemoryThreshold(long inMemoryThreshold) {
+            if (inMemoryThreshold < 0) throw new IllegalArgumentException("\"inMemoryThreshold\" has to be at least 0!");
+            this.inMemoryThreshold = inMemoryThreshold;
+            return this;
+        }
+
+        public MergeSpec build() {
+            return new MergeSpec(this);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.pacifistmc.forgix.plugin;
+
+import io.github.pacifistmc.forgix.utils.MemoryCache;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jetbrains.annotations.Nullable;
+
+// Gradle closes build services at the end of every build, so the memory cache itself is kept in the daemon and this only hands it out.
+// That way every merge of a dev session shares the same memory cache, as long as the plugin isn't loaded again.
+public abstract class ForgixCacheService implements BuildService<ForgixCacheService.Parameters>, AutoCloseable {
+    @Nullable
+    private static MemoryCache daemonMemoryCache;
+
+    @Nullable
+    private final MemoryCache memoryCache;
+
+    public ForgixCacheService() {
+        memoryCache = memoryCache(getParameters().getMemoryCacheSize().get() * 1024L * 1024L);
+    }
+
+    @Nullable
+    private static synchronized MemoryCache memoryCache(long size) {
+        if (size <= 0) {
+            daemonMemoryCache = null;
+        } else if (daemonMemoryCache == null || daemonMemoryCache.getMaxSize() != size) {
+            daemonMemoryCache = new MemoryCache(size);
+        }
+        return daemonMemoryCache;
+    }
+
+    /**
+     * @return The memory cache or null if it's turned off
+     */
+    @Nullable
+    public MemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    @Override
+    public void close() {
+        if (memoryCache != null) Logging.getLogger(ForgixCacheService.class).debug(memoryCache.getStats());
+    }
+
+    public interface Parameters extends BuildServiceParameters {
+        Property<Integer> getMemoryCacheSize();
+    }
+}
@@ -2,6 +2,8 @@ package io.github.pacifistmc.forgix.plugin;
 
 import groovy.lang.Closure;
 import org.apache.commons.io.FilenameUtils;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.bundling.AbstractArchiveTask;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -15,6 +17,16 @@ public class ForgixMergeExtension {
     List<String> removeDuplicates;
 
     String outputDir = "Merged";
+    boolean streaming = false;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    boolean cache = true;
+    String isolation = "classloader";
+    String workerMaxHeap;
+    String duplicateDetection = "none";
+    int compressionLevel = -1;
+    boolean reproducible = false;
+    int inMemoryThreshold = 4;
+    int memoryCacheSize = 256;
 
     public ForgixMergeExtension() {
         if (group != null) {
@@ -66,6 +78,101 @@ public class ForgixMergeExtension {
         this.outputDir = outputDir;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("\"parallelism\" has to be at least 1!");
+        this.parallelism = parallelism;
+    }
+
+    public boolean isCache() {
+        return cache;
+    }
+
+    public void setCache(boolean cache) {
+        this.cache = cache;
+    }
+
+    public String getIsolation() {
+        return isolation;
+    }
+
+    public void setIsolation(String isolation) {
+        if (!isolation.equals("none") && !isolation.equals("classloader") && !isolation.equals("process")) throw new IllegalArgumentException("\"isolation\" has to be \"none\", \"classloader\" or \"process\"!");
+        this.isolation = isolation;
+    }
+
+    public String getWorkerMaxHeap() {
+        return workerMaxHeap;
+    }
+
+    public void setWorkerMaxHeap(String workerMaxHeap) {
+        this.workerMaxHeap = workerMaxHeap;
+    }
+
+    public String getDuplicateDetection() {
+        return duplicateDetection;
+    }
+
+    public void setDuplicateDetection(String duplicateDetection) {
+        if (!duplicateDetection.equals("none") && !duplicateDetection.equals("report") && !duplicateDetection.equals("remove")) throw new IllegalArgumentException("\"duplicateDetection\" has to be \"none\", \"report\" or \"remove\"!");
+        this.duplicateDetection = duplicateDetection;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < -1 || compressionLevel > 9) throw new IllegalArgumentException("\"compressionLevel\" has to be between 0 and 9, or -1 for the default!");
+        this.compressionLevel = compressionLevel;
+    }
+
+    public boolean isReproducible() {
+        return reproducible;
+    }
+
+    public void setReproducible(boolean reproducible) {
+        this.reproducible = reproducible;
+    }
+
+    public int getInMemoryThreshold() {
+        return inMemoryThreshold;
+    }
+
+    public void setInMemoryThreshold(int inMemoryThreshold) {
+        if (inMemoryThreshold < 0) throw new IllegalArgumentException("\"inMemoryThreshold\" has to be at least 0!");
+        this.inMemoryThreshold = inMemoryThreshold;
+    }
+
+    public int getMemoryCacheSize() {
+        return memoryCacheSize;
+    }
+
+    public void setMemoryCacheSize(int memoryCacheSize) {
+        if (memoryCacheSize < 0) throw new IllegalArgumentException("\"memoryCacheSize\" has to be at least 0!");
+        this.memoryCacheSize = memoryCacheSize;
+    }
+
+    /**
+     * The jar of a loader can be its jar task, a provider of that task or a provider of the jar file itself
+     * The merge depends on whatever builds the jar this way
+     */
+    static Object checkJar(Object jar) {
+        if (jar != null && !(jar instanceof AbstractArchiveTask) && !(jar instanceof Provider)) throw new IllegalArgumentException("\"jar\" has to be a jar task or a provider of the jar!");
+        return jar;
+    }
+
     ForgeContainer forgeContainer;
 
     public ForgeContainer forge(Closure<ForgeContainer> closure) {
@@ -169,6 +276,7 @@ public class ForgixMergeExtension {
     public class ForgeContainer {
         String projectName = "forge";
         String jarLocation;
+        Object jar;
         Map<String, String> additionalRelocates;
         List<String> mixins;
 
@@ -188,6 +296,14 @@ public class ForgixMergeExtension {
             this.jarLocation = jarLocation;
         }
 
+        public Object getJar() {
+            return jar;
+        }
+
+        public void setJar(Object jar) {
+            this.jar = checkJar(jar);
+        }
+
         public Map<String, String> getAdditionalRelocates() {
             return additionalRelocates;
         }
@@ -211,6 +327,7 @@ public class ForgixMergeExtension {
     public class NeoForgeContainer {
         String projectName = "neoforge";
         String jarLocation;
+        Object jar;
         Map<String, String> additionalRelocates;
         List<String> mixins;
 
@@ -230,6 +347,14 @@ public class ForgixMergeExtension {
             this.jarLocation = jarLocation;
         }
 
+        public Object getJar() {
+            return jar;
+        }
+
+        public void setJar(Object jar) {
+            this.jar = checkJar(jar);
+        }
+
         public Map<String, String> getAdditionalRelocates() {
             return additionalRelocates;
         }
@@ -253,6 +378,7 @@ public class ForgixMergeExtension {
     public class FabricContainer {
         String projectName = "fabric";
         String jarLocation;
+        Object jar;
         Map<String, String> additionalRelocates;
 
         public String getProjectName() {
@@ -271,6 +397,14 @@ public class ForgixMergeExtension {
             this.jarLocation = jarLocation;
         }
 
+        public Object getJar() {
+            return jar;
+        }
+
+        public void setJar(Object jar) {
+            this.jar = checkJar(jar);
+        }
+
         public Map<String, String> getAdditionalRelocates() {
             return additionalRelocates;
         }
@@ -285,6 +419,7 @@ public class ForgixMergeExtension {
     public class QuiltContainer {
         String projectName = "quilt";
         String jarLocation;
+        Object jar;
         Map<String, String> additionalRelocates;
 
         public String getProjectName() {
@@ -303,6 +438,14 @@ public class ForgixMergeExtension {
             this.jarLocation = jarLocation;
         }
 
+        public Object getJar() {
+            return jar;
+        }
+
+        public void setJar(Object jar) {
+            this.jar = checkJar(jar);
+        }
+
         public Map<String, String> getAdditionalRelocates() {
             return additionalRelocates;
         }
@@ -313,10 +456,10 @@ public class ForgixMergeExtension {
         }
     }
 
-    @SuppressWarnings("InnerClassMayBeStatic")
-    public class CustomContainer {
+    public static class CustomContainer {
         String projectName;
         String jarLocation;
+        Object jar;
         Map<String, String> additionalRelocates;
 
         public String getProjectName() {
@@ -335,6 +478,14 @@ public class ForgixMergeExtension {
             this.jarLocation = jarLocation;
         }
 
+        public Object getJar() {
+            return jar;
+        }
+
+        public void setJar(Object jar) {
+            this.jar = checkJar(jar);
+        }
+
         public Map<String, String> getAdditionalRelocates() {
             return additionalRelocates;
         }
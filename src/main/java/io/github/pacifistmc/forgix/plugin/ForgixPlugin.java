@@ -1,7 +1,19 @@
 package io.github.pacifistmc.forgix.plugin;
 
+import io.github.pacifistmc.forgix.utils.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.bundling.AbstractArchiveTask;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
 
 @SuppressWarnings("NullableProblems")
 public class ForgixPlugin implements Plugin<Project> {
@@ -13,9 +25,108 @@ public class ForgixPlugin implements Plugin<Project> {
         ForgixPlugin.rootProject = project;
 
         settings = rootProject.getExtensions().create("forgix", ForgixMergeExtension.class);
+        ForgixMergeExtension settings = ForgixPlugin.settings;
+        Provider<ForgixCacheService> cacheService = project.getGradle().getSharedServices().registerIfAbsent("forgix", ForgixCacheService.class, spec -> spec.getParameters().getMemoryCacheSize().set(project.provider(settings::getMemoryCacheSize)));
         rootProject.getTasks().register("mergeJars", MergeJarsTask.class).configure(forgix -> {
             forgix.setGroup("forgix");
             forgix.setDescription("Merges Fabric (also Quilt), Forge and NeoForge jars into a single jar!");
+
+            // Everything is a provider so the settings are only read once the build script has configured them
+            forgix.getForgeJar().set(jar(project, () -> settings.getForgeContainer().getProjectName(), () -> settings.getForgeContainer().getJar(), () -> settings.getForgeContainer().getJarLocation(), true));
+            forgix.getForgeRelocations().set(project.provider(() -> settings.getForgeContainer().getAdditionalRelocates()));
+            forgix.getForgeMixins().set(project.provider(() -> settings.getForgeContainer().getMixins()));
+            forgix.getNeoForgeJar().set(jar(project, () -> settings.getNeoForgeContainer().getProjectName(), () -> settings.getNeoForgeContainer().getJar(), () -> settings.getNeoForgeContainer().getJarLocation(), true));
+            forgix.getNeoForgeRelocations().set(project.provider(() -> settings.getNeoForgeContainer().getAdditionalRelocates()));
+            forgix.getNeoForgeMixins().set(project.provider(() -> settings.getNeoForgeContainer().getMixins()));
+            forgix.getFabricJar().set(jar(project, () -> settings.getFabricContainer().getProjectName(), () -> settings.getFabricContainer().getJar(), () -> settings.getFabricContainer().getJarLocation(), true));
+            forgix.getFabricRelocations().set(project.provider(() -> settings.getFabricContainer().getAdditionalRelocates()));
+            forgix.getQuiltJar().set(jar(project, () -> settings.getQuiltContainer().getProjectName(), () -> settings.getQuiltContainer().getJar(), () -> settings.getQuiltContainer().getJarLocation(), true));
+            forgix.getQuiltRelocations().set(project.provider(() -> settings.getQuiltContainer().getAdditionalRelocates()));
+            forgix.getCustomJars().set(project.provider(() -> {
+                List<MergeJarsTask.CustomJar> customJars = new ArrayList<>();
+                for (ForgixMergeExtension.CustomContainer customContainer : settings.getCustomContainers()) {
+                    Provider<RegularFile> jar = jar(project, customContainer::getProjectName, customContainer::getJar, customContainer::getJarLocation, false);
+                    if (!jar.isPresent()) continue;
+
+                    MergeJarsTask.CustomJar customJar = project.getObjects().newInstance(MergeJarsTask.CustomJar.class);
+                    customJar.getProjectName().set(customContainer.getProjectName());
+                    customJar.getJar().set(jar);
+                    if (customContainer.getAdditionalRelocates() != null) customJar.getRelocations().set(customContainer.getAdditionalRelocates());
+                    customJars.add(customJar);
+                }
+                return customJars;
+            }));
+
+            forgix.getModGroup().set(project.provider(settings::getGroup));
+            forgix.getMergedJarName().set(project.provider(settings::getMergedJarName));
+            forgix.getRemoveDuplicates().set(project.provider(settings::getRemoveDuplicates));
+            forgix.getStreaming().set(project.provider(settings::isStreaming));
+            forgix.getDuplicateDetection().set(project.provider(settings::getDuplicateDetection));
+            forgix.getCompressionLevel().set(project.provider(settings::getCompressionLevel));
+            forgix.getReproducible().set(project.provider(settings::isReproducible));
+            forgix.getInMemoryThreshold().set(project.provider(settings::getInMemoryThreshold));
+            forgix.getParallelism().set(project.provider(settings::getParallelism));
+            forgix.getCache().set(project.provider(settings::isCache));
+            forgix.getCacheService().set(cacheService);
+            forgix.usesService(cacheService);
+            forgix.getIsolation().set(project.provider(settings::getIsolation));
+            forgix.getWorkerMaxHeap().set(project.provider(settings::getWorkerMaxHeap));
+            forgix.getTempDir().set(new File(project.getRootDir(), ".gradle" + File.separator + "forgix"));
+            forgix.getOutputJar().fileProvider(project.provider(() -> settings.getMergedJarName() == null ? null : new File(project.getRootDir(), settings.getOutputDir() + File.separator + settings.getMergedJarName())));
+            forgix.getReportFile().fileProvider(project.provider(() -> settings.getMergedJarName() == null ? null : new File(project.getRootDir(), settings.getOutputDir() + File.separator + FilenameUtils.removeExtension(settings.getMergedJarName()) + ".report.json")));
+        });
+    }
+
+    /**
+     * Finds the jar of a loader project, this is lazy and carries the dependency on the task that builds the jar
+     * @param projectName The name of the project
+     * @param jar The jar task or a provider of the jar, see {@link ForgixMergeExtension#checkJar(Object)}
+     * @param jarLocation The location of the jar in the project, only used if there's no jar
+     * @param ignoreCase If the project name should be matched ignoring the case
+     * @return The jar or no value if either the project or the jar doesn't exist, by default this is the jar of the remapJar or jar task of the project
+     */
+    private static Provider<RegularFile> jar(Project project, Supplier<String> projectName, Supplier<Object> jar, Supplier<String> jarLocation, boolean ignoreCase) {
+        return project.provider(() -> project.getAllprojects().stream()
+                .filter(p -> !p.getName().equals(project.getName()))
+                .filter(p -> ignoreCase ? p.getName().equalsIgnoreCase(projectName.get()) : p.getName().equals(projectName.get()))
+                .findFirst()
+                .orElse(null)
+        ).flatMap(loaderProject -> {
+            if (jar.get() != null) return archive(loaderProject, jar.get());
+
+            if (jarLocation.get() != null) {
+                RegularFile file = loaderProject.getLayout().getProjectDirectory().file(jarLocation.get());
+                return loaderProject.provider(() -> file.getAsFile().exists() ? file : null);
+            }
+
+            // Loom and Architectury remap the jar afterwards, everything else uses the jar as it is
+            for (String task : Arrays.asList("remapJar", "jar")) {
+                if (loaderProject.getTasks().getNames().contains(task)) return archive(loaderProject, loaderProject.getTasks().named(task));
+            }
+
+            // Without a jar task there's nothing better than the latest jar in build/libs
+            return loaderProject.provider(() -> {
+                File latestFile = FileUtils.findLatestFile(loaderProject.getLayout().getBuildDirectory().dir("libs").get().getAsFile());
+                return latestFile == null ? null : loaderProject.getLayout().getProjectDirectory().file(latestFile.getAbsolutePath());
+            });
+        });
+    }
+
+    /**
+     * @param jar A jar task, a provider of one or a provider of the jar
+     * @return The jar, which still depends on the task that builds it
+     */
+    private static Provider<RegularFile> archive(Project project, Object jar) {
+        if (jar instanceof AbstractArchiveTask) return ((AbstractArchiveTask) jar).getArchiveFile();
+        if (jar instanceof TaskProvider) return ((TaskProvider<?>) jar).flatMap(task -> {
+            if (task instanceof AbstractArchiveTask) return ((AbstractArchiveTask) task).getArchiveFile();
+            throw new IllegalArgumentException("\"jar\" has to be a jar task, " + task.getName() + " isn't one!");
+        });
+        // Mapping keeps the task that the provider comes from, such as with archiveFile of a jar task
+        return ((Provider<?>) jar).map(value -> {
+            if (value instanceof RegularFile) return (RegularFile) value;
+            if (value instanceof File) return project.getLayout().getProjectDirectory().file(((File) value).getAbsolutePath());
+            throw new IllegalArgumentException("\"jar\" has to be a provider of the jar, not of " + value.getClass().getName() + "!");
         });
     }
 }
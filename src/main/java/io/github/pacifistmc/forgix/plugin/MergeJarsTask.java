@@ -1,131 +1,187 @@
 package io.github.pacifistmc.forgix.plugin;
 
-import io.github.pacifistmc.forgix.Forgix;
-import org.apache.commons.io.FileUtils;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.Project;
-import org.gradle.api.tasks.TaskAction;
-
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.*;
-
-@SuppressWarnings({"ConstantConditions", "OptionalGetWithoutIsPresent", "ResultOfMethodCallIgnored"})
-public class MergeJarsTask extends DefaultTask {
-    @TaskAction
-    void mergeJars() throws IOException {
-        long time = System.currentTimeMillis();
-        if (ForgixPlugin.settings.mergedJarName == null || ForgixPlugin.settings.group == null) {
-            ForgixPlugin.rootProject.getLogger().error("Please configure \"group\" and \"mergedJarName\" manually!");
-            ForgixPlugin.rootProject.getLogger().info("Check out how to configure them here: " + "https://github.com/PacifistMC/Forgix#configuration");
-            return;
-        }
-        ForgixMergeExtension.ForgeContainer forgeSettings = ForgixPlugin.settings.getForgeContainer();
-        ForgixMergeExtension.NeoForgeContainer neoforgeSettings = ForgixPlugin.settings.getNeoForgeContainer();
-        ForgixMergeExtension.FabricContainer fabricSettings = ForgixPlugin.settings.getFabricContainer();
-        ForgixMergeExtension.QuiltContainer quiltSettings = ForgixPlugin.settings.getQuiltContainer();
-
-        List<ForgixMergeExtension.CustomContainer> customSettingsList = ForgixPlugin.settings.getCustomContainers();
-
-        Project forgeProject = null;
-        Project neoforgeProject = null;
-        Project fabricProject = null;
-        Project quiltProject = null;
-
-        Map<Project, ForgixMergeExtension.CustomContainer> customProjects = new HashMap<>();
-
-        List<Boolean> validation = new ArrayList<>();
-        try {
-            forgeProject = ForgixPlugin.rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(ForgixPlugin.rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(forgeSettings.getProjectName())).findFirst().get();
-            validation.add(true);
-        } catch (NoSuchElementException ignored) { }
-        try {
-            neoforgeProject = ForgixPlugin.rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(ForgixPlugin.rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(neoforgeSettings.getProjectName())).findFirst().get();
-            validation.add(true);
-        } catch (NoSuchElementException ignored) {}
-        try {
-            fabricProject = ForgixPlugin.rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(ForgixPlugin.rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(fabricSettings.getProjectName())).findFirst().get();
-            validation.add(true);
-        } catch (NoSuchElementException ignored) { }
-        try {
-            quiltProject = ForgixPlugin.rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(ForgixPlugin.rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(quiltSettings.getProjectName())).findFirst().get();
-            validation.add(true);
-        } catch (NoSuchElementException ignored) { }
-
-        for (ForgixMergeExtension.CustomContainer customSettings : customSettingsList) {
-            try {
-                customProjects.put(ForgixPlugin.rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(ForgixPlugin.rootProject.getName())).filter(p -> p.getName().equals(customSettings.getProjectName())).findFirst().get(), customSettings);
-                validation.add(true);
-            } catch (NoSuchElementException ignored) { }
-        }
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
-        if (validation.size() < 2) {
-            if (validation.size() == 1) ForgixPlugin.rootProject.getLogger().error("Only one project was found. Skipping mergeJar task.");
-            if (validation.size() == 0) ForgixPlugin.rootProject.getLogger().error("No projects were found. Skipping mergeJar task.");
-            return;
-        }
-        validation.clear();
+import javax.inject.Inject;
+import java.util.Arrays;
 
-        File forgeJar = null;
-        File neoforgeJar = null;
-        File fabricJar = null;
-        File quiltJar = null;
+// Everything this task needs is wired up lazily by ForgixPlugin, so it never has to look at the project while it's running.
+// The merge itself happens in MergeJarsWorkAction so other tasks can run while it's merging.
+@CacheableTask
+public abstract class MergeJarsTask extends DefaultTask {
+    @Optional @InputFile @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getForgeJar();
 
-        Map<ForgixMergeExtension.CustomContainer, File> customJars = new HashMap<>();
+    @Optional @Input
+    public abstract MapProperty<String, String> getForgeRelocations();
 
-        if (forgeProject != null) {
-            if (forgeSettings.getJarLocation() != null) {
-                forgeJar = new File(forgeProject.getProjectDir(), forgeSettings.getJarLocation());
-            } else {
-                forgeJar = io.github.pacifistmc.forgix.utils.FileUtils.findLatestFile(new File(forgeProject.getBuildDir(), "libs"));
-            }
+    @Optional @Input
+    public abstract ListProperty<String> getForgeMixins();
+
+    @Optional @InputFile @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getNeoForgeJar();
+
+    @Optional @Input
+    public abstract MapProperty<String, String> getNeoForgeRelocations();
+
+    @Optional @Input
+    public abstract ListProperty<String> getNeoForgeMixins();
+
+    @Optional @InputFile @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getFabricJar();
+
+    @Optional @Input
+    public abstract MapProperty<String, String> getFabricRelocations();
+
+    @Optional @InputFile @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getQuiltJar();
+
+    @Optional @Input
+    public abstract MapProperty<String, String> getQuiltRelocations();
+
+    @Nested
+    public abstract ListProperty<CustomJar> getCustomJars();
+
+    @Optional @Input
+    public abstract Property<String> getModGroup();
+
+    @Optional @Input
+    public abstract Property<String> getMergedJarName();
+
+    @Optional @Input
+    public abstract ListProperty<String> getRemoveDuplicates();
+
+    @Input
+    public abstract Property<Boolean> getStreaming();
+
+    @Input
+    public abstract Property<String> getDuplicateDetection();
+
+    @Input
+    public abstract Property<Integer> getCompressionLevel();
+
+    @Input
+    public abstract Property<Boolean> getReproducible();
+
+    @Input
+    public abstract Property<Integer> getInMemoryThreshold();
+
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    @Internal
+    public abstract Property<Boolean> getCache();
+
+    @Internal
+    public abstract Property<ForgixCacheService> getCacheService();
+
+    @Internal
+    public abstract DirectoryProperty getTempDir();
+
+    @Optional @OutputFile
+    public abstract RegularFileProperty getOutputJar();
+
+    @Optional @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    @Internal
+    public abstract Property<String> getIsolation();
+
+    @Optional @Internal
+    public abstract Property<String> getWorkerMaxHeap();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @TaskAction
+    void mergeJars() {
+        if (!getMergedJarName().isPresent() || !getModGroup().isPresent() || !getOutputJar().isPresent()) {
+            getLogger().error("Please configure \"group\" and \"mergedJarName\" manually!");
+            getLogger().info("Check out how to configure them here: " + "https://github.com/PacifistMC/Forgix#configuration");
+            return;
         }
 
-        if (neoforgeProject != null) {
-            if (neoforgeSettings.getJarLocation() != null) {
-                neoforgeJar = new File(neoforgeProject.getProjectDir(), neoforgeSettings.getJarLocation());
-            } else {
-                neoforgeJar = io.github.pacifistmc.forgix.utils.FileUtils.findLatestFile(new File(neoforgeProject.getBuildDir(), "libs"));
-            }
+        int jars = getCustomJars().get().size();
+        for (RegularFileProperty jar : Arrays.asList(getForgeJar(), getNeoForgeJar(), getFabricJar(), getQuiltJar())) {
+            if (jar.isPresent()) jars++;
         }
 
-        if (fabricProject != null) {
-            if (fabricSettings.getJarLocation() != null) {
-                fabricJar = new File(fabricProject.getProjectDir(), fabricSettings.getJarLocation());
-            } else {
-                fabricJar = io.github.pacifistmc.forgix.utils.FileUtils.findLatestFile(new File(fabricProject.getBuildDir(), "libs"));
-            }
+        if (jars < 2) {
+            if (jars == 1) getLogger().error("Only one project was found. Skipping mergeJar task.");
+            if (jars == 0) getLogger().error("No projects were found. Skipping mergeJar task.");
+            return;
         }
 
-        if (quiltProject != null) {
-            if (quiltSettings.getJarLocation() != null) {
-                quiltJar = new File(quiltProject.getProjectDir(), quiltSettings.getJarLocation());
-            } else {
-                quiltJar = io.github.pacifistmc.forgix.utils.FileUtils.findLatestFile(new File(quiltProject.getBuildDir(), "libs"));
-            }
+        // The memory cache is opt in, isolated work gets its own heap which is the safer default
+        if (!getIsolation().get().equals("none")) getLogger().info("The memory cache isn't used since \"isolation\" is set to \"" + getIsolation().get() + "\", set it to \"none\" to use it.");
+
+        WorkQueue workQueue;
+        switch (getIsolation().get()) {
+            case "none":
+                workQueue = getWorkerExecutor().noIsolation();
+                break;
+            case "process":
+                workQueue = getWorkerExecutor().processIsolation(spec -> {
+                    if (getWorkerMaxHeap().isPresent()) spec.forkOptions(options -> options.setMaxHeapSize(getWorkerMaxHeap().get()));
+                });
+                break;
+            default:
+                workQueue = getWorkerExecutor().classLoaderIsolation();
+                break;
         }
 
-        for (Map.Entry<Project, ForgixMergeExtension.CustomContainer> entry : customProjects.entrySet()) {
-            if (entry.getValue().getJarLocation() != null) {
-                customJars.put(entry.getValue(), new File(entry.getKey().getProjectDir(), entry.getValue().getJarLocation()));
-            } else {
-                customJars.put(entry.getValue(), io.github.pacifistmc.forgix.utils.FileUtils.findLatestFile(new File(entry.getKey().getBuildDir(), "libs")));
+        workQueue.submit(MergeJarsWorkAction.class, parameters -> {
+            parameters.getForgeJar().set(getForgeJar());
+            parameters.getForgeRelocations().set(getForgeRelocations());
+            parameters.getForgeMixins().set(getForgeMixins());
+            parameters.getNeoForgeJar().set(getNeoForgeJar());
+            parameters.getNeoForgeRelocations().set(getNeoForgeRelocations());
+            parameters.getNeoForgeMixins().set(getNeoForgeMixins());
+            parameters.getFabricJar().set(getFabricJar());
+            parameters.getFabricRelocations().set(getFabricRelocations());
+            parameters.getQuiltJar().set(getQuiltJar());
+            parameters.getQuiltRelocations().set(getQuiltRelocations());
+            for (CustomJar customJar : getCustomJars().get()) {
+                parameters.getCustomJars().put(customJar.getProjectName().get(), customJar.getJar().get().getAsFile());
+                if (customJar.getRelocations().isPresent()) parameters.getCustomRelocations().put(customJar.getProjectName().get(), customJar.getRelocations().get());
             }
-        }
+            parameters.getModGroup().set(getModGroup());
+            parameters.getMergedJarName().set(getMergedJarName());
+            parameters.getRemoveDuplicates().set(getRemoveDuplicates());
+            parameters.getStreaming().set(getStreaming());
+            parameters.getDuplicateDetection().set(getDuplicateDetection());
+            parameters.getCompressionLevel().set(getCompressionLevel());
+            parameters.getReproducible().set(getReproducible());
+            parameters.getInMemoryThreshold().set(getInMemoryThreshold());
+            parameters.getParallelism().set(getParallelism());
+            parameters.getCache().set(getCache());
+            // Gradle can only hand build services to work that isn't isolated
+            if (getIsolation().get().equals("none")) parameters.getCacheService().set(getCacheService());
+            parameters.getTempDir().set(getTempDir());
+            parameters.getOutputJar().set(getOutputJar());
+            parameters.getReportFile().set(getReportFile());
+        });
+    }
 
-        File mergedJar = new File(ForgixPlugin.rootProject.getRootDir(), ForgixPlugin.settings.getOutputDir() + File.separator + ForgixPlugin.settings.getMergedJarName());
-        if (mergedJar.exists()) FileUtils.forceDelete(mergedJar);
-        if (!mergedJar.getParentFile().exists()) mergedJar.getParentFile().mkdirs();
+    /**
+     * The inputs of a custom container
+     */
+    public abstract static class CustomJar {
+        @Input
+        public abstract Property<String> getProjectName();
 
-        Path tempMergedJarPath = new Forgix.Merge(forgeJar, forgeSettings.getAdditionalRelocates(), forgeSettings.getMixins(), neoforgeJar, neoforgeSettings.getAdditionalRelocates(), neoforgeSettings.getMixins(), fabricJar, fabricSettings.getAdditionalRelocates(), quiltJar, quiltSettings.getAdditionalRelocates(), customJars, ForgixPlugin.settings.getGroup(), new File(ForgixPlugin.rootProject.getRootDir(), ".gradle" + File.separator + "forgix"), ForgixPlugin.settings.getMergedJarName(), ForgixPlugin.settings.getRemoveDuplicates(), ForgixPlugin.rootProject.getLogger()).merge(false).toPath();
-        Files.move(tempMergedJarPath, mergedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        try {
-            Files.setPosixFilePermissions(mergedJar.toPath(), Forgix.Merge.perms);
-        } catch (UnsupportedOperationException | IOException | SecurityException ignored) { }
+        @InputFile @PathSensitive(PathSensitivity.NONE)
+        public abstract RegularFileProperty getJar();
 
-        ForgixPlugin.rootProject.getLogger().debug("Merged jar created in " + (System.currentTimeMillis() - time) / 1000.0 + " seconds.");
+        @Optional @Input
+        public abstract MapProperty<String, String> getRelocations();
     }
 }
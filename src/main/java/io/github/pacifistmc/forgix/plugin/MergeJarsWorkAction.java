@@ -0,0 +1,141 @@
+package io.github.pacifistmc.forgix.plugin;
+
+import io.github.pacifistmc.forgix.Forgix;
+import io.github.pacifistmc.forgix.LoaderInput;
+import io.github.pacifistmc.forgix.utils.DuplicateDetector;
+import io.github.pacifistmc.forgix.utils.MergeCache;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// This is what MergeJarsTask submits to the worker executor, so the merge can run in its own classloader or process
+@SuppressWarnings("ResultOfMethodCallIgnored")
+public abstract class MergeJarsWorkAction implements WorkAction<MergeJarsWorkAction.Parameters> {
+    private static final Logger logger = Logging.getLogger(MergeJarsWorkAction.class);
+
+    @Override
+    public void execute() {
+        try {
+            merge();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void merge() throws IOException {
+        Parameters parameters = getParameters();
+
+        List<LoaderInput> loaders = new ArrayList<>();
+        if (parameters.getForgeJar().isPresent()) loaders.add(LoaderInput.forge(file(parameters.getForgeJar()), parameters.getForgeRelocations().getOrNull(), parameters.getForgeMixins().getOrNull()));
+        if (parameters.getNeoForgeJar().isPresent()) loaders.add(LoaderInput.neoforge(file(parameters.getNeoForgeJar()), parameters.getNeoForgeRelocations().getOrNull(), parameters.getNeoForgeMixins().getOrNull()));
+        if (parameters.getFabricJar().isPresent()) loaders.add(LoaderInput.fabric(file(parameters.getFabricJar()), parameters.getFabricRelocations().getOrNull()));
+        if (parameters.getQuiltJar().isPresent()) loaders.add(LoaderInput.quilt(file(parameters.getQuiltJar()), parameters.getQuiltRelocations().getOrNull()));
+        for (Map.Entry<String, File> customJar : parameters.getCustomJars().get().entrySet()) {
+            loaders.add(LoaderInput.custom(customJar.getKey(), customJar.getValue(), parameters.getCustomRelocations().get().get(customJar.getKey())));
+        }
+
+        File mergedJar = parameters.getOutputJar().get().getAsFile();
+        if (mergedJar.exists()) FileUtils.forceDelete(mergedJar);
+        if (!mergedJar.getParentFile().exists()) mergedJar.getParentFile().mkdirs();
+
+        File tempDir = parameters.getTempDir().get().getAsFile();
+        Forgix.Merge merge = new Forgix.Merge(loaders, parameters.getModGroup().get(), tempDir, parameters.getMergedJarName().get(), parameters.getRemoveDuplicates().getOrNull(), logger);
+        merge.setStreaming(parameters.getStreaming().get());
+        merge.setDuplicateDetection(DuplicateDetector.Mode.valueOf(parameters.getDuplicateDetection().get().toUpperCase(Locale.ROOT)));
+        merge.setParallelism(parameters.getParallelism().get());
+        merge.setCompressionLevel(parameters.getCompressionLevel().get());
+        merge.setReproducible(parameters.getReproducible().get());
+        merge.setInMemoryThreshold(parameters.getInMemoryThreshold().get() * 1024L * 1024L);
+        if (parameters.getCache().get()) merge.setCache(new MergeCache(new File(tempDir, "cache")));
+        if (parameters.getCacheService().isPresent()) merge.setMemoryCache(parameters.getCacheService().get().getMemoryCache());
+
+        Path tempMergedJarPath = merge.merge(false).toPath();
+        Files.move(tempMergedJarPath, mergedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try {
+            Files.setPosixFilePermissions(mergedJar.toPath(), Forgix.Merge.perms);
+        } catch (UnsupportedOperationException | IOException | SecurityException ignored) { }
+
+        // The report replaces the old "Merged jar created in" line with the time of every phase
+        if (parameters.getReportFile().isPresent()) merge.getReport().write(parameters.getReportFile().get().getAsFile());
+        logger.info(merge.getReport().getSummary());
+    }
+
+    private static File file(RegularFileProperty property) {
+        return property.isPresent() ? property.get().getAsFile() : null;
+    }
+
+    /**
+     * Everything the merge needs, copied over from {@link MergeJarsTask}
+     */
+    public interface Parameters extends WorkParameters {
+        RegularFileProperty getForgeJar();
+
+        MapProperty<String, String> getForgeRelocations();
+
+        ListProperty<String> getForgeMixins();
+
+        RegularFileProperty getNeoForgeJar();
+
+        MapProperty<String, String> getNeoForgeRelocations();
+
+        ListProperty<String> getNeoForgeMixins();
+
+        RegularFileProperty getFabricJar();
+
+        MapProperty<String, String> getFabricRelocations();
+
+        RegularFileProperty getQuiltJar();
+
+        MapProperty<String, String> getQuiltRelocations();
+
+        MapProperty<String, File> getCustomJars();
+
+        MapProperty<String, Map<String, String>> getCustomRelocations();
+
+        Property<String> getModGroup();
+
+        Property<String> getMergedJarName();
+
+        ListProperty<String> getRemoveDuplicates();
+
+        Property<Boolean> getStreaming();
+
+        Property<String> getDuplicateDetection();
+
+        Property<Integer> getCompressionLevel();
+
+        Property<Boolean> getReproducible();
+
+        Property<Integer> getInMemoryThreshold();
+
+        Property<Integer> getParallelism();
+
+        Property<Boolean> getCache();
+
+        Property<ForgixCacheService> getCacheService();
+
+        DirectoryProperty getTempDir();
+
+        RegularFileProperty getOutputJar();
+
+        RegularFileProperty getReportFile();
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.IOException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Something that remembers relocated classes, such as the {@link MergeCache} on disk or the {@link MemoryCache} of the daemon
+ */
+public interface ClassCache {
+    /**
+     * Relocates a class or reuses the class that was relocated before
+     * This can be called from multiple threads
+     *
+     * @param bytes The original class file
+     * @param relocator What relocates the class if it isn't in the cache
+     * @return The relocated class file
+     * @throws IOException If the cache couldn't be read or written
+     */
+    byte[] relocate(byte[] bytes, UnaryOperator<byte[]> relocator) throws IOException;
+}
@@ -0,0 +1,187 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the packages of the group that every loader ships the same copy of, like the common module of an architectury mod
+ * The classes are hashed after the loader prefix is taken out again, so two copies only match if they're the same before relocating
+ */
+public class DuplicateDetector {
+    private final String group;
+    private final String groupPath;
+    // Loader name -> entry without the loader prefix -> hash
+    private final Map<String, Map<String, String>> hashes = new LinkedHashMap<>();
+    // Class without the loader prefix -> the classes of the group it references
+    private final Map<String, Set<String>> references = new HashMap<>();
+    private long entries;
+
+    /**
+     * What to do with the packages that are found
+     */
+    public enum Mode {
+        NONE,
+        REPORT,
+        REMOVE
+    }
+
+    /**
+     * @param group The group that the loaders were relocated with
+     */
+    public DuplicateDetector(String group) {
+        this.group = group;
+        this.groupPath = group.replace('.', '/');
+    }
+
+    /**
+     * Hashes every entry of the group in a relocated loader jar
+     * @param loader The name of the loader, this is what the group was prefixed with
+     * @param jar The relocated jar
+     * @throws IOException If the jar couldn't be read
+     */
+    public void add(String loader, File jar) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                if (entry.isDirectory() || !isGroupEntry(loader, entry.getName())) continue;
+
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    add(loader, entry.getName(), IOUtils.toByteArray(inputStream));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param loader The name of the loader
+     * @param name The name of a relocated entry
+     * @return If the entry is part of the group, only these are hashed
+     */
+    public boolean isGroupEntry(String loader, String name) {
+        return name.startsWith(loader + "/" + groupPath + "/");
+    }
+
+    /**
+     * Hashes a single entry of the group
+     * @param loader The name of the loader, this is what the group was prefixed with
+     * @param entryName The name of the relocated entry
+     * @param bytes The contents of the relocated entry
+     */
+    public void add(String loader, String entryName, byte[] bytes) {
+        if (!isGroupEntry(loader, entryName)) return;
+        String name = entryName.substring(loader.length() + 1);
+        if (name.endsWith(".class")) {
+            Map<String, String> normalize = new HashMap<>();
+            normalize.put(loader + "." + group, group);
+            Set<String> classReferences = new HashSet<>();
+            Relocator relocator = new Relocator(normalize) {
+                @Override
+                public String map(String internalName) {
+                    String mapped = super.map(internalName);
+                    if (mapped.startsWith(groupPath + "/")) classReferences.add(mapped);
+                    return mapped;
+                }
+            };
+            bytes = relocator.relocateClass(bytes);
+            references.computeIfAbsent(name.substring(0, name.length() - ".class".length()), k -> new HashSet<>()).addAll(classReferences);
+        }
+        hashes.computeIfAbsent(loader, k -> new HashMap<>()).put(name, MergeCache.hash(bytes));
+        entries++;
+    }
+
+    /**
+     * @return How many entries were hashed so far
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * A package is a duplicate if at least two loaders have it, all of them have the same entries in it and its subpackages,
+     * and its classes only reference classes of the group that are in duplicates as well, since everything else stays loader specific
+     *
+     * @return The duplicate packages, such as "org.example.mod.common", subpackages of a duplicate aren't listed on their own
+     */
+    public List<String> find() {
+        Set<String> packages = new TreeSet<>();
+        for (Map<String, String> loaderHashes : hashes.values()) {
+            for (String name : loaderHashes.keySet()) {
+                for (int slash = name.indexOf('/', groupPath.length() + 1); slash != -1; slash = name.indexOf('/', slash + 1)) {
+                    packages.add(name.substring(0, slash));
+                }
+            }
+        }
+
+        Set<String> candidates = new TreeSet<>();
+        for (String pkg : packages) {
+            if (isShared(pkg)) candidates.add(pkg);
+        }
+
+        // Dropping a package can break the packages that reference it, so this goes on until nothing changes
+        List<String> duplicates;
+        boolean changed;
+        do {
+            duplicates = outermost(candidates);
+            changed = false;
+            for (String duplicate : duplicates) {
+                if (!referencesOnlyDuplicates(duplicate, duplicates)) {
+                    candidates.remove(duplicate);
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        List<String> found = new ArrayList<>();
+        for (String duplicate : duplicates) found.add(duplicate.replace('/', '.'));
+        return found;
+    }
+
+    private boolean isShared(String pkg) {
+        Map<String, String> shared = null;
+        int loaders = 0;
+        for (Map<String, String> loaderHashes : hashes.values()) {
+            Map<String, String> contents = new HashMap<>();
+            for (Map.Entry<String, String> entry : loaderHashes.entrySet()) {
+                if (entry.getKey().startsWith(pkg + "/")) contents.put(entry.getKey(), entry.getValue());
+            }
+            if (contents.isEmpty()) continue;
+            if (shared != null && !shared.equals(contents)) return false;
+            shared = contents;
+            loaders++;
+        }
+        return loaders > 1;
+    }
+
+    private static List<String> outermost(Set<String> packages) {
+        List<String> outermost = new ArrayList<>();
+        for (String pkg : packages) {
+            // Sorted, so a parent always comes before its subpackages
+            if (!isInAny(pkg, outermost)) outermost.add(pkg);
+        }
+        return outermost;
+    }
+
+    private boolean referencesOnlyDuplicates(String pkg, List<String> duplicates) {
+        for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+            if (!entry.getKey().startsWith(pkg + "/")) continue;
+            for (String reference : entry.getValue()) {
+                if (!isInAny(reference, duplicates)) return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isInAny(String name, List<String> packages) {
+        for (String pkg : packages) {
+            if (name.startsWith(pkg + "/")) return true;
+        }
+        return false;
+    }
+}
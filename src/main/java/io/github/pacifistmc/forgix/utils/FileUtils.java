@@ -20,25 +20,22 @@ public class FileUtils {
      * @throws IOException if an I/O error has occurred
      */
     public static void replaceAllTextFiles(File directory, Map<String, String> replacements) throws IOException {
-        for (File file : listAllTextFiles(directory)) {
-            FileInputStream fis = new FileInputStream(file);
-            Scanner scanner = new Scanner(fis);
-            StringBuilder sb = new StringBuilder();
-
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine();
-                for (Map.Entry<String, String> entry : replacements.entrySet()) {
-                    line = line.replace(entry.getKey(), entry.getValue());
-                }
-                sb.append(line).append("\n");
-            }
+        replaceAllTextFiles(directory, TextReplacer.compile(replacements));
+    }
 
-            scanner.close();
-            fis.close();
-            FileOutputStream fos = new FileOutputStream(file);
-            fos.write(sb.toString().getBytes());
-            fos.flush();
-            fos.close();
+    /**
+     * Replaces all files that have text in them with the replacements specified
+     * Files that don't contain anything to replace aren't written to
+     * @param directory Directory that contains the text files
+     * @param replacer The compiled replacements
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void replaceAllTextFiles(File directory, TextReplacer replacer) throws IOException {
+        if (replacer.isEmpty()) return;
+        for (File file : listAllTextFiles(directory)) {
+            byte[] text = Files.readAllBytes(file.toPath());
+            byte[] replaced = replacer.replace(text);
+            if (replaced != text) Files.write(file.toPath(), replaced);
         }
     }
 
@@ -75,6 +72,34 @@ public class FileUtils {
         return jars;
     }
 
+    /**
+     * The entry name version of {@link #manifestJars(File)}
+     * @param entryName The name of the jar entry
+     * @return If the entry is a manifestJar
+     */
+    public static boolean isManifestJar(String entryName) {
+        String parent;
+        if (entryName.startsWith("META-INF/jars/")) {
+            parent = "META-INF/jars/";
+        } else if (entryName.startsWith("META-INF/jarjar/")) {
+            parent = "META-INF/jarjar/";
+        } else {
+            return false;
+        }
+        return entryName.indexOf('/', parent.length()) == -1 && FilenameUtils.getExtension(entryName).equals("jar");
+    }
+
+    /**
+     * The entry name version of {@link #listAllPlatformServices(File, String)}
+     * @param entryName The name of the jar entry
+     * @param group The group that the service should contain
+     * @return If the entry is a platform service
+     */
+    public static boolean isPlatformService(String entryName, String group) {
+        if (!entryName.startsWith("META-INF/services/") || entryName.indexOf('/', "META-INF/services/".length()) != -1) return false;
+        return FilenameUtils.getBaseName(entryName).contains(group);
+    }
+
     /**
      * @param dir That should contain the META-INF directory
      * @return The META-INF directory
@@ -117,19 +142,10 @@ public class FileUtils {
         List<File> mixins = new ArrayList<>();
 
         for (File file : files) {
-            if (!((file.getPath().contains("/data/") || file.getPath().contains("/assets/") || file.getPath().contains("/config/")))) {
-                if (FilenameUtils.getExtension(file.getName()).equals("json")) {
-                    String text = org.apache.commons.io.FileUtils.readFileToString(file, Charset.defaultCharset());
-                    if (refmaps) {
-                        if (text.contains("\"mappings\":") || text.contains("\"data\":")) {
-                            mixins.add(file);
-                            continue;
-                        }
-                    }
-
-                    if (text.contains("\"package\":")) {
-                        mixins.add(file);
-                    }
+            if (isMixinCandidate(file.getPath())) {
+                String text = org.apache.commons.io.FileUtils.readFileToString(file, Charset.defaultCharset());
+                if (isMixin(text, refmaps)) {
+                    mixins.add(file);
                 }
             }
         }
@@ -147,14 +163,12 @@ public class FileUtils {
         List<File> refmaps = new ArrayList<>();
 
         for (File file : files) {
-            if (!((file.getPath().contains("/data/") || file.getPath().contains("/assets/") || file.getPath().contains("/config/")))) {
-                if (FilenameUtils.getExtension(file.getName()).equals("json")) {
+            if (isMixinCandidate(file.getPath())) {
                 String text = org.apache.commons.io.FileUtils.readFileToString(file, Charset.defaultCharset());
-                if (text.contains("\"mappings\":") || text.contains("\"data\":")) {
+                if (isRefmap(text)) {
                     refmaps.add(file);
                 }
             }
-            }
         }
 
         return refmaps;
@@ -178,7 +192,7 @@ public class FileUtils {
             FileInputStream fis = new FileInputStream(file);
             Scanner scanner = new Scanner(fis);
             if (scanner.hasNext()) {
-                if (scanner.nextLine().startsWith("accessWidener")) {
+                if (isAccessWidener(file.getName(), scanner.nextLine())) {
                     wideners.add(file);
                 }
             }
@@ -189,6 +203,44 @@ public class FileUtils {
         return wideners;
     }
 
+    /**
+     * @param path The path of the file or the name of the jar entry
+     * @return If the file could be a mixin or a refmap, this doesn't look at the contents
+     */
+    public static boolean isMixinCandidate(String path) {
+        path = "/" + path.replace(File.separatorChar, '/');
+        if (path.contains("/data/") || path.contains("/assets/") || path.contains("/config/")) return false;
+        return FilenameUtils.getExtension(path).equals("json");
+    }
+
+    /**
+     * @param text The contents of a file that passed {@link #isMixinCandidate(String)}
+     * @param refmaps If true refmaps also count as mixins
+     * @return If the file is a mixin
+     */
+    public static boolean isMixin(String text, boolean refmaps) {
+        if (refmaps && isRefmap(text)) return true;
+        return text.contains("\"package\":");
+    }
+
+    /**
+     * @param text The contents of a file that passed {@link #isMixinCandidate(String)}
+     * @return If the file is a refmap
+     */
+    public static boolean isRefmap(String text) {
+        return text.contains("\"mappings\":") || text.contains("\"data\":");
+    }
+
+    /**
+     * @param name The name of the file
+     * @param firstLine The first line of the file
+     * @return If the file is an accesswidener
+     */
+    public static boolean isAccessWidener(String name, @Nullable String firstLine) {
+        if (FilenameUtils.getExtension(name).equals("accesswidener")) return true;
+        return firstLine != null && firstLine.startsWith("accessWidener");
+    }
+
     public static List<File> listAllPlatformServices(File dir, String group) {
         List<File> services = new ArrayList<>();
 
@@ -229,19 +281,7 @@ public class FileUtils {
      * @return If the file is a zip file
      */
     public static boolean isZipFile(File file) {
-        try {
-            if (file.isDirectory()) return false;
-            byte[] bytes = new byte[4];
-            FileInputStream fis = new FileInputStream(file);
-            if (fis.read(bytes) != 4) {
-                return false;
-            }
-            fis.close();
-            final int header = bytes[0] + (bytes[1] << 8) + (bytes[2] << 16) + (bytes[3] << 24);
-            return 0x04034b50 == header;
-        } catch (IOException e) {
-            return false;
-        }
+        return ZipIndex.isZip(file);
     }
 
     /**
@@ -255,17 +295,36 @@ public class FileUtils {
             byte[] data = new byte[size];
             int bytesRead = inputStream.read(data, 0, size);
 
-            for (int i = 0; i < bytesRead; i++) {
-                if (data[i] == 0) {
-                    return true;
-                }
-            }
-            return false;
+            return isBinary(data, bytesRead);
         } catch (IOException e) {
             return false;
         }
     }
 
+    /**
+     * Try to determine if the contents of a file is binary or text
+     * @param data - The contents to test
+     * @return - True if binary
+     */
+    public static boolean isBinary(byte[] data) {
+        return isBinary(data, Math.min(data.length, 4096));
+    }
+
+    /**
+     * Try to determine if the contents of a file is binary or text
+     * @param data - The contents to test
+     * @param length - How many bytes of the contents to test
+     * @return - True if binary
+     */
+    public static boolean isBinary(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Try to find the latest file with the shortest name in a directory
      * @param directory The directory to find the file in
@@ -0,0 +1,164 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Keeps what's expensive to work out again in memory between merges, this is meant to live as long as the Gradle daemon does
+ * The jar indexes, the compiled text replacers and the relocated classes all share a single budget, the least recently used ones are thrown away first
+ * Unlike {@link MergeCache} nothing is hashed or read from disk, so a merge where nothing changed only has to read the jars and write the merged jar
+ */
+public class MemoryCache {
+    // Every entry costs a bit more than what it holds, this is roughly what the map and the key take up
+    private static final long ENTRY_OVERHEAD = 128;
+
+    private final long maxSize;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSize Roughly how many bytes the cache can take up
+     */
+    public MemoryCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Reads the index of a jar or reuses the index from before if the jar didn't change since then
+     * @param jar The jar
+     * @return The index of the jar
+     * @throws IOException If the jar couldn't be read
+     */
+    public ZipIndex zipIndex(File jar) throws IOException {
+        List<Object> key = Arrays.asList("zip index", jar.getAbsolutePath(), jar.length(), jar.lastModified());
+        ZipIndex index = (ZipIndex) get(key);
+        if (index == null) {
+            index = ZipIndex.read(jar);
+            put(key, index, index.getMemorySize());
+        }
+        return index;
+    }
+
+    /**
+     * Compiles the replacements or reuses the replacer from before if the replacements are the same
+     * @param replacements What to replace with what, this is copied so it can still be changed afterwards
+     * @return The compiled replacer
+     */
+    public TextReplacer textReplacer(Map<String, String> replacements) {
+        List<Object> key = Arrays.asList("text replacer", new TreeMap<>(replacements));
+        TextReplacer replacer = (TextReplacer) get(key);
+        if (replacer == null) {
+            replacer = TextReplacer.compile(replacements);
+            put(key, replacer, replacer.getMemorySize());
+        }
+        return replacer;
+    }
+
+    /**
+     * The relocated classes of a jar, these are only reused if the class and the key are exactly the same
+     * @param key The key of the relocations that are applied to the classes
+     * @param classes The classes on disk to fall back to, these still get every class so they don't lose the ones that were in memory
+     * @return The relocated classes
+     */
+    public ClassCache classes(String key, @Nullable MergeCache.Classes classes) {
+        return (bytes, relocator) -> {
+            // The class itself is the key, comparing it is cheaper than hashing it
+            List<Object> classKey = Arrays.asList("class", key, ByteBuffer.wrap(bytes));
+            byte[] relocatedBytes = (byte[]) get(classKey);
+            if (relocatedBytes != null) {
+                if (classes != null) classes.keep(bytes, relocatedBytes);
+                return relocatedBytes;
+            }
+
+            relocatedBytes = classes == null ? relocator.apply(bytes) : classes.relocate(bytes, relocator);
+            put(classKey, relocatedBytes, bytes.length + relocatedBytes.length);
+            return relocatedBytes;
+        };
+    }
+
+    @Nullable
+    private synchronized Object get(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    private synchronized void put(Object key, Object value, long valueSize) {
+        long entrySize = valueSize + ENTRY_OVERHEAD;
+        if (entrySize > maxSize) return;
+
+        Entry previous = entries.put(key, new Entry(value, entrySize));
+        if (previous != null) size -= previous.size;
+        size += entrySize;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            size -= eldest.next().size;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return Roughly how many bytes the cache can take up
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return How many lookups found something
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return How many lookups didn't find anything
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return How many entries were thrown away to make room for newer ones
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Roughly how many bytes the cache takes up right now
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The hits, misses, evictions and size in a single line
+     */
+    public synchronized String getStats() {
+        return "The memory cache had " + hits + " hits and " + misses + " misses, " + evictions + " entries were evicted and it holds " + entries.size() + " entries in " + size / 1024 / 1024 + " of " + maxSize / 1024 / 1024 + " MB.";
+    }
+
+    private static class Entry {
+        final Object value;
+        final long size;
+
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
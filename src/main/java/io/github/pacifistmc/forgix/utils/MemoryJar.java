@@ -0,0 +1,120 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A jar that's completely loaded into memory, this is what small jars are merged from so nothing has to be written to temporary files
+ * Every entry remembers where it is in the jar it was read from, so it can be copied from there as it is
+ */
+public class MemoryJar {
+    private final List<String> names = new ArrayList<>();
+    private final List<byte[]> contents = new ArrayList<>();
+    private final List<Integer> dosTimes = new ArrayList<>();
+    private final List<Integer> sources = new ArrayList<>();
+
+    /**
+     * Reads every entry of a jar into memory
+     * @param jar The jar to read
+     * @return The jar in memory
+     * @throws IOException If the jar couldn't be read
+     */
+    public static MemoryJar read(File jar) throws IOException {
+        return read(jar, ZipIndex.read(jar));
+    }
+
+    /**
+     * Reads every entry of a jar into memory
+     * @param jar The jar to read
+     * @param index The index of the jar, if it was already read before
+     * @return The jar in memory
+     * @throws IOException If the jar couldn't be read
+     */
+    public static MemoryJar read(File jar, ZipIndex index) throws IOException {
+        MemoryJar memoryJar = new MemoryJar();
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            for (int i = 0; i < index.size(); i++) {
+                String name = index.getName(i);
+                byte[] bytes = null;
+                if (!name.endsWith("/")) {
+                    ZipEntry entry = zipFile.getEntry(name);
+                    if (entry == null) continue;
+                    try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                        bytes = IOUtils.toByteArray(inputStream);
+                    }
+                }
+                memoryJar.add(name, bytes, index.getDosTime(i), i);
+            }
+        }
+        return memoryJar;
+    }
+
+    /**
+     * @param name The name of the entry, ending with a slash for directories
+     * @param bytes The contents of the entry or null for directories
+     * @param dosTime The last modification time in the MS-DOS format
+     * @param source The index of the entry in the source jar
+     */
+    private void add(String name, @Nullable byte[] bytes, int dosTime, int source) {
+        names.add(name);
+        contents.add(bytes);
+        dosTimes.add(dosTime);
+        sources.add(source);
+    }
+
+    /**
+     * @return How many entries there are
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The name of the entry, ending with a slash for directories
+     */
+    public String getName(int index) {
+        return names.get(index);
+    }
+
+    /**
+     * @param name The name of the entry
+     * @return The index of the first entry with that name or -1 if there's no such entry
+     */
+    public int indexOf(String name) {
+        return names.indexOf(name);
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The contents of the entry or null if it's a directory
+     */
+    @Nullable
+    public byte[] getBytes(int index) {
+        return contents.get(index);
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The last modification time of the entry in the MS-DOS format
+     */
+    public int getDosTime(int index) {
+        return dosTimes.get(index);
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The index of the entry in the source jar
+     */
+    public int getSourceEntry(int index) {
+        return sources.get(index);
+    }
+}
@@ -0,0 +1,307 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A persistent cache of merged jars, relocated loader jars and relocated classes
+ * Everything is keyed by the hashes of the input jars and the settings that were used, so if nothing changed the previous result is reused
+ * Only the latest entry of every jar name is kept so the cache doesn't grow forever
+ */
+public class MergeCache {
+    private final File directory;
+    private final File hashesFile;
+    private final Properties hashes = new Properties();
+
+    /**
+     * @param directory The directory to keep the cache in
+     */
+    public MergeCache(File directory) {
+        this.directory = directory;
+        this.hashesFile = new File(directory, "hashes.properties");
+        if (hashesFile.exists()) {
+            try (InputStream inputStream = new FileInputStream(hashesFile)) {
+                hashes.load(inputStream);
+            } catch (IOException ignored) { }
+        }
+    }
+
+    /**
+     * Hashes the contents of a file
+     * The hash is remembered together with the size and the last modified time of the file, so unchanged files aren't read again
+     * @param file The file to hash
+     * @return The SHA-256 hash of the file
+     * @throws IOException If the file couldn't be read
+     */
+    public synchronized String hash(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        String fingerprint = file.length() + ":" + file.lastModified() + ":";
+        String remembered = hashes.getProperty(path);
+        if (remembered != null && remembered.startsWith(fingerprint)) return remembered.substring(fingerprint.length());
+
+        MessageDigest digest = sha256();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        String hash = hex(digest.digest());
+        hashes.setProperty(path, fingerprint + hash);
+        return hash;
+    }
+
+    /**
+     * @param bytes The bytes to hash
+     * @return The SHA-256 hash of the bytes
+     */
+    public static String hash(byte[] bytes) {
+        return hex(sha256().digest(bytes));
+    }
+
+    /**
+     * Copies a cached jar to the target
+     * @param kind What kind of jar it is, for example "merged" or "relocated"
+     * @param name The name of the jar
+     * @param key The key that was used to store the jar
+     * @param target Where to copy the jar to
+     * @return If the jar was in the cache
+     */
+    public boolean restore(String kind, String name, String key, File target) {
+        File cached = new File(new File(new File(directory, kind), name), key + ".jar");
+        if (!cached.isFile()) return false;
+        try {
+            Files.copy(cached.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stores a copy of the jar in the cache, replacing whatever was stored for this name before
+     * @param kind What kind of jar it is, for example "merged" or "relocated"
+     * @param name The name of the jar
+     * @param key The key to store the jar with
+     * @param source The jar to store
+     * @throws IOException If the jar couldn't be copied
+     */
+    public void store(String kind, String name, String key, File source) throws IOException {
+        File parent = new File(new File(directory, kind), name);
+        File[] previous = parent.listFiles();
+        if (previous != null) {
+            for (File file : previous) {
+                file.delete();
+            }
+        }
+
+        parent.mkdirs();
+        File temp = new File(parent, key + ".tmp");
+        Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp.toPath(), new File(parent, key + ".jar").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Opens the relocated classes of a jar so that the classes which didn't change since the last relocation don't have to be relocated again
+     * The classes are only reused if they were relocated with the same key, otherwise they're thrown away when the returned classes are closed
+     * @param name The name of the jar
+     * @param key The key of the relocations that are applied to the classes
+     * @return The relocated classes, these have to be closed to save the classes that were relocated
+     * @throws IOException If the classes couldn't be opened
+     */
+    public Classes classes(String name, String key) throws IOException {
+        return new Classes(new File(new File(directory, "classes"), name), key);
+    }
+
+    /**
+     * Writes the remembered hashes to disk
+     */
+    public synchronized void save() {
+        directory.mkdirs();
+        try (OutputStream outputStream = new FileOutputStream(hashesFile)) {
+            hashes.store(outputStream, "Forgix input hashes");
+        } catch (IOException ignored) { }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The relocated classes of a single jar, stored as a jar of relocated classes named after the hash of the original class
+     * Only the classes that are looked up are written back so classes that were removed from the jar don't pile up
+     */
+    public static class Classes implements ClassCache, Closeable {
+        private final File parent;
+        private final File file;
+        private final File temp;
+        private final ZipFile previous;
+        private final ZipOutputStream output;
+        private final Set<String> written = new HashSet<>();
+        private int reused;
+        private int relocated;
+
+        private Classes(File parent, String key) throws IOException {
+            this.parent = parent;
+            this.file = new File(parent, key + ".jar");
+            this.temp = new File(parent, key + ".tmp");
+            parent.mkdirs();
+
+            ZipFile previous = null;
+            if (file.isFile()) {
+                try {
+                    previous = new ZipFile(file);
+                } catch (IOException ignored) { }
+            }
+            this.previous = previous;
+            this.output = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            this.output.setLevel(Deflater.BEST_SPEED);
+        }
+
+        /**
+         * Relocates a class or reuses the class that was relocated last time
+         * This can be called from multiple threads, the classes are relocated at the same time and only the cache itself is locked
+         *
+         * @param bytes The original class file
+         * @param relocator What relocates the class if it isn't in the cache
+         * @return The relocated class file
+         * @throws IOException If the cache couldn't be read or written
+         */
+        @Override
+        public byte[] relocate(byte[] bytes, UnaryOperator<byte[]> relocator) throws IOException {
+            String hash = hash(bytes);
+            byte[] relocatedBytes = reuse(hash);
+            if (relocatedBytes == null) {
+                relocatedBytes = relocator.apply(bytes);
+                synchronized (this) {
+                    relocated++;
+                }
+            }
+            store(hash, relocatedBytes);
+            return relocatedBytes;
+        }
+
+        /**
+         * Keeps a class that was relocated somewhere else, such as a class that was still in memory, so it's still in here next time
+         * @param bytes The original class file
+         * @param relocatedBytes The relocated class file
+         * @throws IOException If the cache couldn't be written
+         */
+        public void keep(byte[] bytes, byte[] relocatedBytes) throws IOException {
+            store(hash(bytes), relocatedBytes);
+            synchronized (this) {
+                reused++;
+            }
+        }
+
+        @Nullable
+        private synchronized byte[] reuse(String hash) {
+            ZipEntry entry = previous == null ? null : previous.getEntry(hash);
+            if (entry == null) return null;
+            try (InputStream inputStream = previous.getInputStream(entry)) {
+                byte[] bytes = IOUtils.toByteArray(inputStream);
+                reused++;
+                return bytes;
+            } catch (IOException ignored) {
+                return null;
+            }
+        }
+
+        private synchronized void store(String hash, byte[] relocatedBytes) throws IOException {
+            if (written.add(hash)) {
+                output.putNextEntry(new ZipEntry(hash));
+                output.write(relocatedBytes);
+                output.closeEntry();
+            }
+        }
+
+        /**
+         * @return How many classes were taken from the cache
+         */
+        public int getReused() {
+            return reused;
+        }
+
+        /**
+         * @return How many classes had to be relocated
+         */
+        public int getRelocated() {
+            return relocated;
+        }
+
+        /**
+         * Saves the classes that were looked up and removes the classes of any other key
+         * @throws IOException If the classes couldn't be saved
+         */
+        @Override
+        public void close() throws IOException {
+            if (previous != null) previous.close();
+            output.close();
+
+            File[] files = parent.listFiles();
+            if (files != null) {
+                for (File other : files) {
+                    if (!other.equals(temp)) other.delete();
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Builds a cache key out of everything that affects the output
+     * Maps are sorted first so the order they were configured in doesn't matter
+     */
+    public static class Key {
+        private final MessageDigest digest = sha256();
+
+        public Key put(@Nullable Object value) {
+            if (value instanceof Map) {
+                Map<String, Object> sorted = new TreeMap<>();
+                ((Map<?, ?>) value).forEach((key, entry) -> sorted.put(String.valueOf(key), entry));
+                put("{");
+                sorted.forEach((key, entry) -> put(key).put(entry));
+                put("}");
+            } else if (value instanceof Collection) {
+                put("[");
+                for (Object entry : (Collection<?>) value) put(entry);
+                put("]");
+            } else {
+                digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return this;
+        }
+
+        public String build() {
+            return hex(digest.digest());
+        }
+    }
+}
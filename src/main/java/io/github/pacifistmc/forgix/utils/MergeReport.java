@@ -0,0 +1,155 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long every phase of a merge took and how much it did
+ * The loaders are relocated in parallel, so the counters can be added to from multiple threads
+ */
+public class MergeReport {
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final long start = System.nanoTime();
+    private long end;
+
+    /**
+     * @param name The name of the phase, for example "relocate"
+     * @return The phase, it's created the first time it's asked for
+     */
+    public synchronized Phase phase(String name) {
+        return phases.computeIfAbsent(name, Phase::new);
+    }
+
+    /**
+     * Marks the merge as done, the total time is measured until here
+     */
+    public void finish() {
+        end = System.nanoTime();
+    }
+
+    /**
+     * @return The total time of the merge in milliseconds
+     */
+    public double getTotalMillis() {
+        return ((end == 0 ? System.nanoTime() : end) - start) / 1_000_000.0;
+    }
+
+    /**
+     * @return A single line with the time of every phase
+     */
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder(String.format(Locale.ROOT, "Merged in %.0f ms", getTotalMillis()));
+        String separator = " (";
+        for (Phase phase : phases.values()) {
+            summary.append(separator).append(phase.name).append(String.format(Locale.ROOT, " %.0f ms", phase.getMillis()));
+            separator = ", ";
+        }
+        if (!phases.isEmpty()) summary.append(")");
+        return summary.toString();
+    }
+
+    /**
+     * @return The report as JSON
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"totalMillis\": ").append(String.format(Locale.ROOT, "%.3f", getTotalMillis())).append(",\n");
+        json.append("  \"phases\": [");
+        String separator = "\n";
+        for (Phase phase : phases.values()) {
+            json.append(separator);
+            json.append("    {\"name\": \"").append(phase.name).append("\"");
+            json.append(", \"millis\": ").append(String.format(Locale.ROOT, "%.3f", phase.getMillis()));
+            json.append(", \"bytesRead\": ").append(phase.bytesRead.get());
+            json.append(", \"bytesWritten\": ").append(phase.bytesWritten.get());
+            json.append(", \"entries\": ").append(phase.entries.get());
+            json.append(", \"relocations\": ").append(phase.relocations.get()).append("}");
+            separator = ",\n";
+        }
+        json.append(phases.isEmpty() ? "]\n" : "\n  ]\n");
+        return json.append("}\n").toString();
+    }
+
+    /**
+     * Writes the report as JSON
+     * @param file The file to write to
+     * @throws IOException If the file couldn't be written
+     */
+    public void write(File file) throws IOException {
+        Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A single phase of the merge, every method returns the phase itself so they can be chained
+     */
+    public static class Phase {
+        private final String name;
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicLong relocations = new AtomicLong();
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param start When the phase started, from {@link System#nanoTime()}
+         * @return The phase
+         */
+        public Phase time(long start) {
+            nanos.addAndGet(System.nanoTime() - start);
+            return this;
+        }
+
+        /**
+         * @param bytes How many bytes were read
+         * @return The phase
+         */
+        public Phase read(long bytes) {
+            bytesRead.addAndGet(bytes);
+            return this;
+        }
+
+        /**
+         * @param bytes How many bytes were written
+         * @return The phase
+         */
+        public Phase written(long bytes) {
+            bytesWritten.addAndGet(bytes);
+            return this;
+        }
+
+        /**
+         * @param count How many entries were handled
+         * @return The phase
+         */
+        public Phase entries(long count) {
+            entries.addAndGet(count);
+            return this;
+        }
+
+        /**
+         * @param count How many names were relocated
+         * @return The phase
+         */
+        public Phase relocations(long count) {
+            relocations.addAndGet(count);
+            return this;
+        }
+
+        /**
+         * @return How long the phase took in milliseconds, added up over every time it ran
+         */
+        public double getMillis() {
+            return nanos.get() / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Relocates the jars that are nested in a loader jar, such as the libraries in META-INF/jars, and the jars that are nested in those
+ * Everything happens in memory, every nested jar is a task of the pool so the jars at every level are relocated in parallel
+ * A nested jar that doesn't reference anything that's relocated is left exactly as it was
+ */
+public class NestedJarRelocator {
+    private final Map<String, String> relocation;
+    private final TextReplacer replacer;
+    @Nullable
+    private Map<String, String> duplicates;
+    private TextReplacer duplicateReplacer = TextReplacer.compile(Collections.emptyMap());
+    private final ForkJoinPool pool;
+    private int compressionLevel = -1;
+    private final LongAdder jars = new LongAdder();
+    private final LongAdder relocatedJars = new LongAdder();
+    private final LongAdder relocations = new LongAdder();
+
+    /**
+     * @param relocation The packages to relocate, the same as the loader jar itself is relocated with
+     * @param pool The pool that relocates the jars
+     */
+    public NestedJarRelocator(Map<String, String> relocation, ForkJoinPool pool) {
+        this.relocation = relocation;
+        this.pool = pool;
+        this.replacer = textReplacer(relocation);
+    }
+
+    // Text refers to packages both with dots and with slashes
+    private static TextReplacer textReplacer(Map<String, String> relocation) {
+        Map<String, String> replacements = new HashMap<>();
+        for (Map.Entry<String, String> entry : relocation.entrySet()) {
+            replacements.put(entry.getKey().replace('/', '.'), entry.getValue().replace('/', '.'));
+            replacements.put(entry.getKey().replace('.', '/'), entry.getValue().replace('.', '/'));
+        }
+        return TextReplacer.compile(replacements);
+    }
+
+    /**
+     * This has to be set before any jar is submitted
+     * @param duplicates The duplicates that are collapsed into their shared package after relocating, so the nested jars refer to the package that's actually in the merged jar
+     */
+    public void setDuplicates(Map<String, String> duplicates) {
+        this.duplicates = duplicates.isEmpty() ? null : duplicates;
+        this.duplicateReplacer = textReplacer(duplicates);
+    }
+
+    /**
+     * @param compressionLevel The compression level of the nested jars that are changed, from 0 to 9 or -1 for the default
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Starts relocating a nested jar on the pool
+     * @param jar The nested jar
+     * @return The task that gives the relocated jar, or the same array if nothing in it had to be relocated
+     */
+    public ForkJoinTask<byte[]> submit(byte[] jar) {
+        return pool.submit(new Task(jar));
+    }
+
+    /**
+     * Relocates a nested jar and the jars that are nested in it
+     * @param jar The nested jar
+     * @return The relocated jar, or the same array if nothing in it had to be relocated
+     * @throws IOException If the jar couldn't be read
+     */
+    public byte[] relocate(byte[] jar) throws IOException {
+        return join(submit(jar));
+    }
+
+    /**
+     * Waits for a nested jar to be relocated and rethrows whatever it failed with
+     */
+    public static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return How many nested jars were looked at so far, including the ones that are nested deeper
+     */
+    public long getJars() {
+        return jars.sum();
+    }
+
+    /**
+     * @return How many of the nested jars had to be changed
+     */
+    public long getRelocatedJars() {
+        return relocatedJars.sum();
+    }
+
+    /**
+     * @return How many names, strings and text files were relocated in the nested jars so far
+     */
+    public long getRelocations() {
+        return relocations.sum();
+    }
+
+    @SuppressWarnings("serial")
+    private class Task extends RecursiveTask<byte[]> {
+        private final byte[] jar;
+
+        Task(byte[] jar) {
+            this.jar = jar;
+        }
+
+        @Override
+        protected byte[] compute() {
+            try {
+                return relocateNow();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private byte[] relocateNow() throws IOException {
+            jars.increment();
+            List<ZipEntry> entries = new ArrayList<>();
+            List<byte[]> contents = new ArrayList<>();
+            try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(jar))) {
+                for (ZipEntry entry = zipInputStream.getNextEntry(); entry != null; entry = zipInputStream.getNextEntry()) {
+                    entries.add(entry);
+                    contents.add(entry.isDirectory() ? null : IOUtils.toByteArray(zipInputStream));
+                }
+            }
+
+            // The jars that are nested deeper are forked first so they're relocated while this one is
+            Map<Integer, ForkJoinTask<byte[]>> nested = new HashMap<>();
+            for (int i = 0; i < entries.size(); i++) {
+                if (contents.get(i) != null && FileUtils.isManifestJar(entries.get(i).getName())) nested.put(i, new Task(contents.get(i)).fork());
+            }
+
+            // Anything the duplicates collapse was relocated first, so the relocator alone tells if something changed
+            Relocator relocator = new Relocator(relocation);
+            Relocator classRelocator = duplicates == null ? relocator : relocator.andThen(new Relocator(duplicates));
+            boolean changed = false;
+            for (int i = 0; i < entries.size(); i++) {
+                byte[] bytes = contents.get(i);
+                if (bytes == null || nested.containsKey(i)) continue;
+
+                byte[] relocated = bytes;
+                // Scanning for the packages is a lot cheaper than running every class through ASM
+                if (FilenameUtils.getExtension(entries.get(i).getName()).equals("class")) {
+                    if (replacer.replace(bytes) != bytes) relocated = classRelocator.relocateClass(bytes);
+                } else if (!FileUtils.isBinary(bytes)) {
+                    relocated = replacer.replace(bytes);
+                    if (relocated != bytes) {
+                        relocated = duplicateReplacer.replace(relocated);
+                        relocations.increment();
+                    }
+                }
+                if (relocated != bytes) {
+                    contents.set(i, relocated);
+                    changed = true;
+                }
+            }
+
+            for (Map.Entry<Integer, ForkJoinTask<byte[]>> task : nested.entrySet()) {
+                byte[] relocated = task.getValue().join();
+                if (relocated != contents.get(task.getKey())) {
+                    contents.set(task.getKey(), relocated);
+                    changed = true;
+                }
+            }
+
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : entries) {
+                String name = classRelocator.relocateEntry(entry.getName());
+                // A signature that's left out only matters if something else changed, otherwise the jar stays signed
+                if (name != null && !name.equals(entry.getName())) changed = true;
+                names.add(name);
+            }
+            relocations.add(relocator.getRelocations());
+            if (!changed) return jar;
+
+            relocatedJars.increment();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(jar.length);
+            Set<String> written = new HashSet<>();
+            try (ZipOutputStream zipOutputStream = new ZipOutputStream(output)) {
+                zipOutputStream.setLevel(compressionLevel);
+                for (int i = 0; i < entries.size(); i++) {
+                    String name = names.get(i);
+                    // Signatures are left out since they won't match the relocated classes anymore
+                    if (name == null || !written.add(name)) continue;
+                    ZipEntry entry = new ZipEntry(name);
+                    entry.setTime(entries.get(i).getTime());
+                    zipOutputStream.putNextEntry(entry);
+                    if (contents.get(i) != null) zipOutputStream.write(contents.get(i));
+                    zipOutputStream.closeEntry();
+                }
+            }
+            return output.toByteArray();
+        }
+    }
+}
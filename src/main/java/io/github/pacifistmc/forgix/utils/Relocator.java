@@ -0,0 +1,294 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Relocates packages in classes and jars using ASM
+ * Unlike jar-relocator this is fine with multiple packages being relocated to the same package,
+ * so every loader prefix can be collapsed into the shared package in a single pass
+ * A package only matches whole names, so "org.example.mod" relocates "org.example.mod.Mod" and "org.example.mod$Inner" but not "org.example.modded.Mod"
+ */
+public class Relocator extends Remapper {
+    private final String[] patterns;
+    private final String[] relocatedPatterns;
+    private final String[] pathPatterns;
+    private final String[] relocatedPathPatterns;
+    // Only counted, these don't change what gets relocated
+    private final LongAdder relocations = new LongAdder();
+    private long entries;
+    private long bytesRead;
+    private long bytesWritten;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private boolean reproducible;
+
+    /**
+     * @param relocations The packages to relocate, for example "forge.org.example.mod.core" to "org.example.mod.core"
+     */
+    public Relocator(Map<String, String> relocations) {
+        List<Map.Entry<String, String>> sorted = new ArrayList<>(relocations.entrySet());
+        // The longest package has to be checked first so that nested relocations win over their parents, the name only keeps the order stable
+        sorted.sort(Comparator.comparingInt((Map.Entry<String, String> entry) -> -entry.getKey().length()).thenComparing(Map.Entry::getKey));
+
+        patterns = new String[sorted.size()];
+        relocatedPatterns = new String[sorted.size()];
+        pathPatterns = new String[sorted.size()];
+        relocatedPathPatterns = new String[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            patterns[i] = sorted.get(i).getKey().replace('/', '.');
+            relocatedPatterns[i] = sorted.get(i).getValue().replace('/', '.');
+            pathPatterns[i] = sorted.get(i).getKey().replace('.', '/');
+            relocatedPathPatterns[i] = sorted.get(i).getValue().replace('.', '/');
+        }
+    }
+
+    /**
+     * @param compressionLevel The compression level of the jars that are written, from 0 to 9 or -1 for the default
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param reproducible If the jars that are written should have sorted entries and fixed timestamps, see {@link ZipWriter#setReproducible(boolean)}
+     */
+    public void setReproducible(boolean reproducible) {
+        this.reproducible = reproducible;
+    }
+
+    /**
+     * @return If there's nothing to relocate
+     */
+    public boolean isEmpty() {
+        return patterns.length == 0;
+    }
+
+    @Override
+    public String map(String internalName) {
+        String relocated = relocatePath(internalName);
+        if (relocated == null) return internalName;
+        relocations.increment();
+        return relocated;
+    }
+
+    @Override
+    public Object mapValue(Object value) {
+        if (value instanceof String) {
+            String string = (String) value;
+            String relocated = relocateClassName(string);
+            if (relocated == null) relocated = relocateDescriptor(string);
+            if (relocated == null) relocated = relocatePath(string);
+            if (relocated != null) {
+                relocations.increment();
+                return relocated;
+            }
+        }
+        return super.mapValue(value);
+    }
+
+    /**
+     * @return How many names and strings were relocated so far
+     */
+    public long getRelocations() {
+        return relocations.sum();
+    }
+
+    /**
+     * @return How many entries were written by {@link #relocateJar(File, File, TextReplacer, ClassCache)} so far
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return How many uncompressed bytes were read from jars so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return How many uncompressed bytes were written to jars so far
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @param path A path or an internal name such as "org/example/mod/Mod.class"
+     * @return The relocated path or null if it doesn't need to be relocated
+     */
+    @Nullable
+    public String relocatePath(String path) {
+        for (int i = 0; i < pathPatterns.length; i++) {
+            if (startsWithPackage(path, pathPatterns[i], '/')) {
+                return relocatedPathPatterns[i] + path.substring(pathPatterns[i].length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param className A class name such as "org.example.mod.Mod"
+     * @return The relocated class name or null if it doesn't need to be relocated
+     */
+    @Nullable
+    public String relocateClassName(String className) {
+        for (int i = 0; i < patterns.length; i++) {
+            if (startsWithPackage(className, patterns[i], '.')) {
+                return relocatedPatterns[i] + className.substring(patterns[i].length());
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private String relocateDescriptor(String descriptor) {
+        int start = 0;
+        while (start < descriptor.length() && descriptor.charAt(start) == '[') start++;
+        if (start >= descriptor.length() || descriptor.charAt(start) != 'L' || !descriptor.endsWith(";")) return null;
+
+        String relocated = relocatePath(descriptor.substring(start + 1, descriptor.length() - 1));
+        return relocated == null ? null : descriptor.substring(0, start + 1) + relocated + ";";
+    }
+
+    private static boolean startsWithPackage(String name, String pattern, char separator) {
+        if (!name.startsWith(pattern)) return false;
+        if (name.length() == pattern.length()) return true;
+        char next = name.charAt(pattern.length());
+        return next == separator || next == '$';
+    }
+
+    /**
+     * @param name The name of a jar entry
+     * @return The relocated name of the entry or null if it's a signature, which won't match the relocated classes anymore
+     */
+    @Nullable
+    public String relocateEntry(String name) {
+        if (isSignature(name)) return null;
+        return name.startsWith("META-INF/") ? name : map(name);
+    }
+
+    /**
+     * Combines two relocators so that classes only have to be relocated once, this relocates with this relocator first and then with the other one
+     * @param next The relocator to relocate with afterwards
+     * @return The combined relocator
+     */
+    public Relocator andThen(Relocator next) {
+        Relocator first = this;
+        return new Relocator(Collections.emptyMap()) {
+            @Override
+            public String map(String internalName) {
+                return next.map(first.map(internalName));
+            }
+
+            @Override
+            public Object mapValue(Object value) {
+                // Everything that isn't a string goes through map, which already relocates with both
+                if (value instanceof String) return next.mapValue(first.mapValue(value));
+                return super.mapValue(value);
+            }
+        };
+    }
+
+    private static boolean isSignature(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1) return false;
+        String extension = FilenameUtils.getExtension(name).toUpperCase(Locale.ROOT);
+        return name.equals("META-INF/INDEX.LIST") || extension.equals("SF") || extension.equals("DSA") || extension.equals("RSA") || extension.equals("EC");
+    }
+
+    /**
+     * Relocates a single class
+     * @param bytes The class file
+     * @return The relocated class file
+     */
+    public byte[] relocateClass(byte[] bytes) {
+        ClassReader classReader = new ClassReader(bytes);
+        ClassWriter classWriter = new ClassWriter(0);
+        classReader.accept(new ClassRemapper(classWriter, this), 0);
+        return classWriter.toByteArray();
+    }
+
+    /**
+     * Relocates a whole jar in a single pass
+     * If multiple entries end up with the same name then only the first one is kept
+     *
+     * @param jar The jar to relocate
+     * @param output The jar to write the relocated jar to
+     * @param replacer The replacements for the text entries or null to leave them as they are
+     * @throws IOException If something went wrong
+     */
+    public void relocateJar(File jar, File output, @Nullable TextReplacer replacer) throws IOException {
+        relocateJar(jar, output, replacer, null);
+    }
+
+    /**
+     * Relocates a whole jar in a single pass
+     * If multiple entries end up with the same name then only the first one is kept
+     * Signatures are left out since they won't match the relocated classes anymore
+     *
+     * @param jar The jar to relocate
+     * @param output The jar to write the relocated jar to
+     * @param replacer The replacements for the text entries or null to leave them as they are
+     * @param classes The previously relocated classes to reuse or null to relocate every class
+     * @throws IOException If something went wrong
+     */
+    public void relocateJar(File jar, File output, @Nullable TextReplacer replacer, @Nullable ClassCache classes) throws IOException {
+        Set<String> written = new HashSet<>();
+        ZipIndex index = ZipIndex.read(jar);
+        try (ZipFile zipFile = new ZipFile(jar); FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ); ZipWriter zipWriter = new ZipWriter(output, compressionLevel, 1)) {
+            zipWriter.setReproducible(reproducible);
+            for (int i = 0; i < index.size(); i++) {
+                String original = index.getName(i);
+                String name = relocateEntry(original);
+                if (name == null || !written.add(name)) continue;
+                this.entries++;
+
+                if (name.endsWith("/")) {
+                    zipWriter.putDirectory(name, index.getDosTime(i));
+                    continue;
+                }
+
+                // Everything that isn't a class stays the same if there's nothing to replace, so it's copied without inflating it
+                boolean isClass = FilenameUtils.getExtension(name).equals("class");
+                if (!isClass && replacer == null && zipWriter.copy(name, index, i, channel)) {
+                    bytesRead += index.getSize(i);
+                    bytesWritten += index.getSize(i);
+                    continue;
+                }
+
+                ZipEntry entry = zipFile.getEntry(original);
+                if (entry == null) throw new ZipException("Missing entry " + original + " in " + jar);
+                byte[] bytes;
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    bytes = IOUtils.toByteArray(inputStream);
+                }
+                bytesRead += bytes.length;
+
+                byte[] relocated = bytes;
+                if (isClass) {
+                    relocated = classes == null ? relocateClass(bytes) : classes.relocate(bytes, this::relocateClass);
+                } else if (replacer != null && !FileUtils.isBinary(bytes)) {
+                    relocated = replacer.replace(bytes);
+                }
+                if (relocated != bytes || !zipWriter.copy(name, index, i, channel)) zipWriter.write(name, relocated, index.getDosTime(i));
+                bytesWritten += relocated.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static io.github.pacifistmc.forgix.utils.FileUtils.*;
+
+/**
+ * Tells what every resource of a loader is after looking at each of them only once
+ * Before this every kind of resource walked the whole loader again and read the files again to find out what they are
+ */
+public class ResourceIndex {
+    private final Map<String, Kind> kinds = new LinkedHashMap<>();
+
+    /**
+     * What a resource is
+     */
+    public enum Kind {
+        CLASS,
+        BINARY,
+        TEXT,
+        MIXIN,
+        REFMAP,
+        ACCESS_WIDENER,
+        SERVICE,
+        NESTED_JAR;
+
+        /**
+         * @return If the contents of the resource are text that should be remapped
+         */
+        public boolean isText() {
+            return this != CLASS && this != BINARY && this != NESTED_JAR;
+        }
+    }
+
+    /**
+     * Creates an empty index, the resources are added to it with {@link #add(String, InputStream, String)}
+     */
+    public ResourceIndex() { }
+
+    /**
+     * Classifies every file of an extracted jar
+     * @param directory The extracted jar
+     * @param group The group that platform services contain
+     * @return The index where the paths are relative to the directory and separated by "/"
+     * @throws IOException If a file couldn't be read
+     */
+    public static ResourceIndex of(File directory, String group) throws IOException {
+        ResourceIndex index = new ResourceIndex();
+        index(index, directory, "", group);
+        return index;
+    }
+
+    private static void index(ResourceIndex index, File directory, String prefix, String group) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        // The order of listFiles depends on the file system, the mixins that are found are added to the manifest in this order
+        Arrays.sort(files);
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                index(index, file, path + "/", group);
+            } else {
+                try (InputStream inputStream = new FileInputStream(file)) {
+                    index.kinds.put(path, classify(path, inputStream, group));
+                }
+            }
+        }
+    }
+
+    /**
+     * Classifies every entry of a jar
+     * @param zipFile The jar
+     * @param group The group that platform services contain
+     * @return The index where the paths are the names of the entries
+     * @throws IOException If an entry couldn't be read
+     */
+    public static ResourceIndex of(ZipFile zipFile, String group) throws IOException {
+        ResourceIndex index = new ResourceIndex();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory()) continue;
+            try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                index.kinds.put(entry.getName(), classify(entry.getName(), inputStream, group));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Classifies a single resource, if there's already a resource with that path then that one is kept
+     * @param path The path of the resource, separated by "/"
+     * @param inputStream The contents of the resource
+     * @param group The group that platform services contain
+     * @return What the resource is
+     * @throws IOException If the resource couldn't be read
+     */
+    public Kind add(String path, InputStream inputStream, String group) throws IOException {
+        Kind kind = classify(path, inputStream, group);
+        kinds.putIfAbsent(path, kind);
+        return kind;
+    }
+
+    private static Kind classify(String path, InputStream inputStream, String group) throws IOException {
+        if (isManifestJar(path)) return Kind.NESTED_JAR;
+        if (isPlatformService(path, group)) return Kind.SERVICE;
+        if (FilenameUtils.getExtension(path).equals("class")) return Kind.CLASS;
+
+        // Only mixins and refmaps have to be read completely, for everything else the start is enough
+        byte[] bytes;
+        int length;
+        if (isMixinCandidate(path)) {
+            bytes = IOUtils.toByteArray(inputStream);
+            length = bytes.length;
+        } else {
+            bytes = new byte[4096];
+            length = IOUtils.read(inputStream, bytes);
+        }
+        if (isBinary(bytes, Math.min(length, 4096))) return Kind.BINARY;
+
+        String text = new String(bytes, 0, length);
+        if (isMixinCandidate(path)) {
+            if (isMixin(text, false)) return Kind.MIXIN;
+            if (isRefmap(text)) return Kind.REFMAP;
+        }
+
+        Scanner scanner = new Scanner(text);
+        if (isAccessWidener(FilenameUtils.getName(path), scanner.hasNext() ? scanner.nextLine() : null)) return Kind.ACCESS_WIDENER;
+        return Kind.TEXT;
+    }
+
+    /**
+     * @param path The path of the resource
+     * @return What the resource is or null if there's no such resource
+     */
+    @Nullable
+    public Kind getKind(String path) {
+        return kinds.get(path);
+    }
+
+    /**
+     * @return Every resource and what it is, in the order they were found
+     */
+    public Map<String, Kind> getKinds() {
+        return Collections.unmodifiableMap(kinds);
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Replaces many strings at once using an Aho-Corasick automaton over the raw bytes
+ * This is compiled once per relocation map and then every file is scanned a single time no matter how many replacements there are
+ * When multiple replacements match the one that starts first wins and if they start at the same place the longest one wins
+ */
+public class TextReplacer {
+    private static final TextReplacer EMPTY = new TextReplacer(Collections.emptyMap());
+
+    private final int[] rootTransitions = new int[256];
+    private final byte[][] keys;
+    private final int[][] targets;
+    private final int[] failure;
+    private final int[] depth;
+    // The length of the longest replacement that ends in this state, or 0 if none do
+    private final int[] output;
+    private final byte[][] replacements;
+    private final int[] replacementIndex;
+
+    private TextReplacer(Map<String, String> replacementMap) {
+        List<Map<Byte, Integer>> trie = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        List<Integer> terminals = new ArrayList<>();
+        trie.add(new HashMap<>());
+        depths.add(0);
+        terminals.add(-1);
+
+        replacements = new byte[replacementMap.size()][];
+        int index = 0;
+        for (Map.Entry<String, String> entry : replacementMap.entrySet()) {
+            if (entry.getKey().isEmpty()) continue;
+            int state = 0;
+            for (byte b : entry.getKey().getBytes(StandardCharsets.UTF_8)) {
+                Integer next = trie.get(state).get(b);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    depths.add(depths.get(state) + 1);
+                    terminals.add(-1);
+                    trie.get(state).put(b, next);
+                }
+                state = next;
+            }
+            terminals.set(state, index);
+            replacements[index++] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+        }
+
+        int states = trie.size();
+        keys = new byte[states][];
+        targets = new int[states][];
+        failure = new int[states];
+        depth = new int[states];
+        output = new int[states];
+        replacementIndex = new int[states];
+        for (int state = 0; state < states; state++) {
+            Map<Byte, Integer> children = trie.get(state);
+            keys[state] = new byte[children.size()];
+            targets[state] = new int[children.size()];
+            int i = 0;
+            for (Map.Entry<Byte, Integer> child : children.entrySet()) {
+                keys[state][i] = child.getKey();
+                targets[state][i++] = child.getValue();
+            }
+            depth[state] = depths.get(state);
+            replacementIndex[state] = terminals.get(state);
+        }
+
+        // Breadth first so that the failure of every state is known before its children need it
+        Arrays.fill(rootTransitions, 0);
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < keys[0].length; i++) {
+            int child = targets[0][i];
+            rootTransitions[keys[0][i] & 0xFF] = child;
+            failure[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            output[state] = replacementIndex[state] != -1 ? depth[state] : output[failure[state]];
+            if (replacementIndex[state] == -1 && output[state] != 0) {
+                replacementIndex[state] = replacementIndex[longestOutputState(failure[state])];
+            }
+            for (int i = 0; i < keys[state].length; i++) {
+                int child = targets[state][i];
+                failure[child] = transition(failure[state], keys[state][i]);
+                queue.add(child);
+            }
+        }
+    }
+
+    private int longestOutputState(int state) {
+        while (state != 0 && replacementIndex[state] == -1) state = failure[state];
+        return state;
+    }
+
+    /**
+     * Compiles the replacements
+     * @param replacements What to replace with what
+     * @return The compiled replacer
+     */
+    public static TextReplacer compile(Map<String, String> replacements) {
+        if (replacements.isEmpty()) return EMPTY;
+        return new TextReplacer(replacements);
+    }
+
+    /**
+     * @return If this doesn't replace anything
+     */
+    public boolean isEmpty() {
+        return keys[0].length == 0;
+    }
+
+    /**
+     * @return Roughly how many bytes the compiled replacer takes up in memory
+     */
+    public long getMemorySize() {
+        long size = 1024 + 20L * keys.length;
+        for (int state = 0; state < keys.length; state++) size += keys[state].length * 5L;
+        for (byte[] replacement : replacements) size += replacement == null ? 0 : replacement.length;
+        return size;
+    }
+
+    private int transition(int state, byte b) {
+        while (true) {
+            if (state == 0) return rootTransitions[b & 0xFF];
+            byte[] stateKeys = keys[state];
+            for (int i = 0; i < stateKeys.length; i++) {
+                if (stateKeys[i] == b) return targets[state][i];
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * Replaces everything in the text
+     * @param text The raw bytes of the text
+     * @return The replaced text, or the same array if nothing was replaced
+     */
+    public byte[] replace(byte[] text) {
+        if (isEmpty()) return text;
+
+        ByteArrayOutputStream replaced = null;
+        int copied = 0;
+        int position = 0;
+        int state = 0;
+        int matchStart = -1;
+        int matchLength = 0;
+        int matchState = 0;
+
+        while (position <= text.length) {
+            boolean end = position == text.length;
+            if (!end) {
+                state = transition(state, text[position]);
+                if (output[state] != 0) {
+                    int start = position - output[state] + 1;
+                    if (matchStart == -1 || start < matchStart || (start == matchStart && output[state] > matchLength)) {
+                        matchStart = start;
+                        matchLength = output[state];
+                        matchState = state;
+                    }
+                }
+            }
+
+            // Nothing that's still being matched could start at or before the match, so it's the leftmost longest one
+            if (matchStart != -1 && (end || position + 1 - depth[state] > matchStart)) {
+                if (replaced == null) replaced = new ByteArrayOutputStream(text.length + 64);
+                replaced.write(text, copied, matchStart - copied);
+                byte[] replacement = replacements[replacementIndex[matchState]];
+                replaced.write(replacement, 0, replacement.length);
+                copied = matchStart + matchLength;
+                position = copied;
+                state = 0;
+                matchStart = -1;
+                matchLength = 0;
+                continue;
+            }
+
+            position++;
+        }
+
+        if (replaced == null) return text;
+        replaced.write(text, copied, text.length - copied);
+        return replaced.toByteArray();
+    }
+}
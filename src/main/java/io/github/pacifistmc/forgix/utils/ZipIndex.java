@@ -0,0 +1,311 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * The entries of a zip file, read straight from the central directory
+ * This only reads the end of the file, so nothing gets inflated and there's no ZipEntry for every entry
+ * The central directory is read into memory instead of being mapped since a mapped file stays locked on Windows until it's garbage collected
+ */
+public class ZipIndex {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private final ByteBuffer centralDirectory;
+    private final int[] headerOffsets;
+    private final int[] nameOffsets;
+    private final int[] nameLengths;
+    // Built the first time a name is looked up, the index can be shared between threads so it's only published once it's complete
+    private volatile Map<String, Integer> indices;
+
+    private ZipIndex(ByteBuffer centralDirectory, int entries) throws ZipException {
+        this.centralDirectory = centralDirectory;
+        this.headerOffsets = new int[entries];
+        this.nameOffsets = new int[entries];
+        this.nameLengths = new int[entries];
+
+        int position = 0;
+        for (int i = 0; i < entries; i++) {
+            if (position + 46 > centralDirectory.limit() || centralDirectory.getInt(position) != CENTRAL_HEADER) throw new ZipException("Invalid central directory");
+            int nameLength = centralDirectory.getShort(position + 28) & 0xFFFF;
+            int extraLength = centralDirectory.getShort(position + 30) & 0xFFFF;
+            int commentLength = centralDirectory.getShort(position + 32) & 0xFFFF;
+            headerOffsets[i] = position;
+            nameOffsets[i] = position + 46;
+            nameLengths[i] = nameLength;
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Reads the central directory of a zip file
+     * @param file The zip file
+     * @return The index of the zip file
+     * @throws IOException If the file couldn't be read or isn't a zip file
+     */
+    public static ZipIndex read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int tailSize = (int) Math.min(size, END_SIZE + 0xFFFF);
+            ByteBuffer tail = read(channel, size - tailSize, tailSize);
+
+            // The end record is followed by a comment of up to 65535 bytes, so we search backwards for it
+            int end = -1;
+            for (int i = tailSize - END_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_HEADER) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1) throw new ZipException("No end of central directory found in " + file);
+
+            long entries = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+            // Zip64 files have the real values in another record that the locator right before the end record points to
+            if (end >= 20 && tail.getInt(end - 20) == ZIP64_END_LOCATOR) {
+                ByteBuffer zip64End = read(channel, tail.getLong(end - 20 + 8), 56);
+                if (zip64End.getInt(0) == ZIP64_END_HEADER) {
+                    entries = zip64End.getLong(32);
+                    directorySize = zip64End.getLong(40);
+                    directoryOffset = zip64End.getLong(48);
+                }
+            }
+
+            if (directorySize > Integer.MAX_VALUE || entries > Integer.MAX_VALUE) throw new ZipException("Central directory of " + file + " is too big");
+            return new ZipIndex(read(channel, directoryOffset, (int) directorySize), (int) entries);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new ZipException("Unexpected end of zip file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Checks if a file starts with a zip header without reading anything else
+     * @param file The file to check
+     * @return If the file is a zip file
+     */
+    public static boolean isZip(File file) {
+        if (!file.isFile()) return false;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) return false;
+            }
+            return header.getInt(0) == LOCAL_HEADER;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return How many entries there are
+     */
+    public int size() {
+        return nameOffsets.length;
+    }
+
+    /**
+     * @return Roughly how many bytes the index takes up in memory, counting the names as if they were looked up
+     */
+    public long getMemorySize() {
+        return centralDirectory.capacity() + 76L * nameOffsets.length;
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The name of the entry
+     */
+    public String getName(int index) {
+        return getName(index, nameLengths[index]);
+    }
+
+    private String getName(int index, int length) {
+        byte[] name = new byte[length];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = centralDirectory.get(nameOffsets[index] + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param name The name of the entry
+     * @return The index of the entry or -1 if there's no entry with this name
+     */
+    public int indexOf(String name) {
+        Map<String, Integer> indices = this.indices;
+        if (indices == null) {
+            indices = new HashMap<>(nameOffsets.length * 2);
+            // Like ZipFile the first entry wins if a name is in there twice
+            for (int i = nameOffsets.length - 1; i >= 0; i--) {
+                indices.put(getName(i), i);
+            }
+            this.indices = indices;
+        }
+        return indices.getOrDefault(name, -1);
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The general purpose flags of the entry
+     */
+    public int getFlags(int index) {
+        return centralDirectory.getShort(headerOffsets[index] + 8) & 0xFFFF;
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The compression method of the entry, {@link java.util.zip.ZipEntry#STORED} or {@link java.util.zip.ZipEntry#DEFLATED}
+     */
+    public int getMethod(int index) {
+        return centralDirectory.getShort(headerOffsets[index] + 10) & 0xFFFF;
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The last modification time of the entry in the MS-DOS format, the time is in the lower half and the date in the upper half
+     */
+    public int getDosTime(int index) {
+        return centralDirectory.getInt(headerOffsets[index] + 12);
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The CRC-32 of the uncompressed entry
+     */
+    public int getCrc(int index) {
+        return centralDirectory.getInt(headerOffsets[index] + 16);
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The compressed size of the entry
+     */
+    public long getCompressedSize(int index) {
+        return getZip64(index, 20, 1);
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return The uncompressed size of the entry
+     */
+    public long getSize(int index) {
+        return getZip64(index, 24, 0);
+    }
+
+    /**
+     * @param index The index of the entry
+     * @return Where the local header of the entry starts in the zip file
+     */
+    public long getLocalHeaderOffset(int index) {
+        return getZip64(index, 42, 2);
+    }
+
+    // A value that doesn't fit is 0xFFFFFFFF and then it's in the zip64 extra field, which only has the values that didn't fit in this order
+    private long getZip64(int index, int offset, int field) {
+        int header = headerOffsets[index];
+        long value = centralDirectory.getInt(header + offset) & 0xFFFFFFFFL;
+        if (value != 0xFFFFFFFFL) return value;
+
+        int extra = nameOffsets[index] + nameLengths[index];
+        int extraEnd = extra + (centralDirectory.getShort(header + 30) & 0xFFFF);
+        while (extra + 4 <= extraEnd) {
+            int id = centralDirectory.getShort(extra) & 0xFFFF;
+            int size = centralDirectory.getShort(extra + 2) & 0xFFFF;
+            if (id == ZIP64_EXTRA) {
+                int position = extra + 4;
+                int[] offsets = {24, 20, 42};
+                for (int i = 0; i < field; i++) {
+                    if ((centralDirectory.getInt(header + offsets[i]) & 0xFFFFFFFFL) == 0xFFFFFFFFL) position += 8;
+                }
+                if (position + 8 <= extra + 4 + size) return centralDirectory.getLong(position);
+            }
+            extra += 4 + size;
+        }
+        return value;
+    }
+
+    /**
+     * @param name The name of the entry
+     * @return If there's an entry with this name
+     */
+    public boolean contains(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < nameOffsets.length; i++) {
+            if (nameLengths[i] == bytes.length && startsWith(i, bytes)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lists the files that are directly in a directory, for example "META-INF/jars/" or "META-INF/services/"
+     * @param directory The directory, ending with a slash
+     * @return The names of the files in the directory
+     */
+    public List<String> list(String directory) {
+        byte[] bytes = directory.getBytes(StandardCharsets.UTF_8);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < nameOffsets.length; i++) {
+            if (nameLengths[i] > bytes.length && startsWith(i, bytes) && indexOf(i, (byte) '/', bytes.length) == -1) names.add(getName(i));
+        }
+        return names;
+    }
+
+    /**
+     * Finds a top level directory by the start of its name, for example "architectury_inject"
+     * @param prefix The start of the name of the directory
+     * @return The name of the directory without a trailing slash or null if there's no such directory
+     */
+    @Nullable
+    public String findTopDirectory(String prefix) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < nameOffsets.length; i++) {
+            if (nameLengths[i] <= bytes.length || !startsWith(i, bytes)) continue;
+            int slash = indexOf(i, (byte) '/', bytes.length);
+            if (slash != -1) return getName(i, slash);
+        }
+        return null;
+    }
+
+    private boolean startsWith(int index, byte[] prefix) {
+        if (nameLengths[index] < prefix.length) return false;
+        int offset = nameOffsets[index];
+        for (int i = 0; i < prefix.length; i++) {
+            if (centralDirectory.get(offset + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private int indexOf(int index, byte b, int from) {
+        int offset = nameOffsets[index];
+        for (int i = from; i < nameLengths[index]; i++) {
+            if (centralDirectory.get(offset + i) == b) return i;
+        }
+        return -1;
+    }
+}
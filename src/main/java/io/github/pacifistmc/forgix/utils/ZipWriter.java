@@ -0,0 +1,397 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file like ZipOutputStream, except that entries can also be copied from another zip file as they are
+ * A copied entry keeps its compressed bytes, CRC and sizes, so it's never inflated or deflated again
+ * The other entries can be deflated on multiple threads, they're still written in the order they were added
+ */
+public class ZipWriter implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int ENCRYPTED_FLAG = 0x0001;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    // 1980-02-01 00:00, the same time Gradle gives entries when it doesn't preserve timestamps
+    private static final int REPRODUCIBLE_TIME = (2 << 21) | (1 << 16);
+    // Jar files have their manifest first, after that the entries are sorted by name
+    private static final Comparator<String> ENTRY_ORDER = Comparator.<String>comparingInt(name -> name.equals("META-INF/") ? 0 : name.equals("META-INF/MANIFEST.MF") ? 1 : 2).thenComparing(Comparator.naturalOrder());
+    // Below this the entry is copied through the buffer, the flush and the transfer aren't worth it for small entries
+    private static final int TRANSFER_THRESHOLD = 64 * 1024;
+
+    private final FileOutputStream fileOutputStream;
+    private final BufferedOutputStream outputStream;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final int level;
+    @Nullable
+    private final ExecutorService executor;
+    // An executor that's shared with other work isn't shut down when the zip file is closed
+    private final boolean sharedExecutor;
+    private final int maxPending;
+    // Every thread deflates with its own deflater, they're all ended when the zip file is closed
+    private final List<Deflater> deflaters = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<Deflater> deflater;
+    private final Deque<Future<Output>> pending = new ArrayDeque<>();
+    @Nullable
+    private Map<String, Future<Output>> sorted;
+    private final byte[] buffer = new byte[8192];
+    private long position;
+    private long entries;
+    private long copied;
+
+    /**
+     * @param file The zip file to write
+     * @throws IOException If the file couldn't be created
+     */
+    public ZipWriter(File file) throws IOException {
+        this(file, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+
+    /**
+     * @param file The zip file to write
+     * @param level The compression level from 0 to 9 or -1 for the default, entries are stored without compressing them at 0
+     * @param threads How many threads deflate the entries, at 1 they're deflated right away on the thread that writes them
+     * @throws IOException If the file couldn't be created
+     */
+    public ZipWriter(File file, int level, int threads) throws IOException {
+        this(file, level, threads > 1 ? Executors.newFixedThreadPool(threads) : null, false, threads);
+    }
+
+    /**
+     * @param file The zip file to write
+     * @param level The compression level from 0 to 9 or -1 for the default, entries are stored without compressing them at 0
+     * @param executor What deflates the entries, this is shared with other work so it's left running once the zip file is closed
+     * @param threads Roughly how many threads the executor deflates the entries on
+     * @throws IOException If the file couldn't be created
+     */
+    public ZipWriter(File file, int level, ExecutorService executor, int threads) throws IOException {
+        this(file, level, executor, true, threads);
+    }
+
+    private ZipWriter(File file, int level, @Nullable ExecutorService executor, boolean sharedExecutor, int threads) throws IOException {
+        this.fileOutputStream = new FileOutputStream(file);
+        this.outputStream = new BufferedOutputStream(fileOutputStream, 64 * 1024);
+        this.level = level;
+        this.executor = executor;
+        this.sharedExecutor = sharedExecutor;
+        this.maxPending = Math.max(1, threads) * 4;
+        this.deflater = ThreadLocal.withInitial(() -> {
+            Deflater deflater = new Deflater(level, true);
+            deflaters.add(deflater);
+            return deflater;
+        });
+    }
+
+    /**
+     * Makes the zip file the same every time for the same entries, no matter in which order they're added
+     * The entries are sorted by name and get a fixed time, so they're only written once the zip file is closed
+     * This has to be set before any entry is added
+     *
+     * @param reproducible If the zip file should be reproducible
+     */
+    public void setReproducible(boolean reproducible) {
+        this.sorted = reproducible ? new TreeMap<>(ENTRY_ORDER) : null;
+    }
+
+    /**
+     * @return How many entries were copied without being inflated and deflated again so far
+     */
+    public long getCopied() {
+        return copied;
+    }
+
+    /**
+     * Writes a directory entry
+     * @param name The name of the directory, ending with a slash
+     * @param dosTime The last modification time in the MS-DOS format
+     * @throws IOException If something went wrong
+     */
+    public void putDirectory(String name, int dosTime) throws IOException {
+        add(name, () -> putEntry(name, ZipEntry.STORED, dosTime, 0, 0, 0));
+    }
+
+    /**
+     * Deflates and writes an entry
+     * @param name The name of the entry
+     * @param bytes The uncompressed contents of the entry
+     * @param dosTime The last modification time in the MS-DOS format
+     * @throws IOException If something went wrong
+     */
+    public void write(String name, byte[] bytes, int dosTime) throws IOException {
+        // Stored entries only need their CRC, that's not worth handing over to another thread
+        if (executor == null || level == Deflater.NO_COMPRESSION) {
+            add(name, compress(name, bytes, dosTime));
+        } else {
+            add(name, executor.submit(() -> compress(name, bytes, dosTime)));
+        }
+    }
+
+    /**
+     * Works out the contents of an entry and deflates it, both on the threads that deflate the entries
+     * This way expensive changes to an entry, like relocating a class, happen in parallel as well
+     *
+     * @param name The name of the entry
+     * @param contents What works out the uncompressed contents of the entry
+     * @param dosTime The last modification time in the MS-DOS format
+     * @throws IOException If something went wrong
+     */
+    public void write(String name, Contents contents, int dosTime) throws IOException {
+        if (executor == null) {
+            add(name, compress(name, contents.get(), dosTime));
+        } else {
+            add(name, executor.submit(() -> compress(name, contents.get(), dosTime)));
+        }
+    }
+
+    /**
+     * The contents of an entry that are worked out when it's deflated
+     */
+    public interface Contents {
+        byte[] get() throws IOException;
+    }
+
+    private Output compress(String name, byte[] bytes, int dosTime) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        if (level == Deflater.NO_COMPRESSION) {
+            return () -> {
+                putEntry(name, ZipEntry.STORED, dosTime, (int) crc.getValue(), bytes.length, bytes.length);
+                outputStream.write(bytes);
+                position += bytes.length;
+            };
+        }
+
+        Deflater deflater = this.deflater.get();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, bytes.length / 2));
+        byte[] buffer = new byte[8192];
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+
+        return () -> {
+            putEntry(name, ZipEntry.DEFLATED, dosTime, (int) crc.getValue(), compressed.size(), bytes.length);
+            compressed.writeTo(outputStream);
+            position += compressed.size();
+        };
+    }
+
+    /**
+     * Copies an entry from another zip file without inflating it
+     * @param name The name of the entry in this zip file
+     * @param index The index of the other zip file
+     * @param entry The index of the entry in the other zip file
+     * @param source The other zip file
+     * @return If the entry was copied, entries that are encrypted or compressed with anything else than deflate can't be copied
+     * @throws IOException If something went wrong
+     */
+    public boolean copy(String name, ZipIndex index, int entry, FileChannel source) throws IOException {
+        int method = index.getMethod(entry);
+        if ((index.getFlags(entry) & ENCRYPTED_FLAG) != 0 || (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)) return false;
+        add(name, () -> copyNow(name, index, entry, source, method));
+        copied++;
+        return true;
+    }
+
+    private void copyNow(String name, ZipIndex index, int entry, FileChannel source, int method) throws IOException {
+        // The local header can have a different extra field than the central directory, so the data starts after whatever is in there
+        long header = index.getLocalHeaderOffset(entry);
+        ByteBuffer localHeader = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        while (localHeader.hasRemaining()) {
+            if (source.read(localHeader, header + localHeader.position()) < 0) throw new ZipException("Unexpected end of zip file");
+        }
+        if (localHeader.getInt(0) != LOCAL_HEADER) throw new ZipException("Invalid local header of " + index.getName(entry));
+        long data = header + 30 + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+
+        long compressedSize = index.getCompressedSize(entry);
+        putEntry(name, method, index.getDosTime(entry), index.getCrc(entry), compressedSize, index.getSize(entry));
+        if (compressedSize >= TRANSFER_THRESHOLD) {
+            outputStream.flush();
+            FileChannel target = fileOutputStream.getChannel();
+            for (long transferred = 0; transferred < compressedSize; ) {
+                long count = source.transferTo(data + transferred, compressedSize - transferred, target);
+                if (count <= 0) throw new ZipException("Unexpected end of zip file");
+                transferred += count;
+            }
+        } else {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer);
+            for (long transferred = 0; transferred < compressedSize; ) {
+                bytes.clear().limit((int) Math.min(buffer.length, compressedSize - transferred));
+                int count = source.read(bytes, data + transferred);
+                if (count <= 0) throw new ZipException("Unexpected end of zip file");
+                outputStream.write(buffer, 0, count);
+                transferred += count;
+            }
+        }
+        position += compressedSize;
+    }
+
+    /**
+     * Writes every file of a directory, the manifest comes first since that's where JarInputStream looks for it
+     * @param directory The directory to write
+     * @throws IOException If something went wrong
+     */
+    public void putDirectoryContents(File directory) throws IOException {
+        List<String> names = new ArrayList<>();
+        list(directory, "", names);
+        names.sort(ENTRY_ORDER);
+
+        for (String name : names) {
+            File file = new File(directory, name);
+            int dosTime = toDosTime(file.lastModified());
+            if (name.endsWith("/")) putDirectory(name, dosTime);
+            else write(name, java.nio.file.Files.readAllBytes(file.toPath()), dosTime);
+        }
+    }
+
+    private static void list(File directory, String prefix, List<String> names) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                names.add(prefix + file.getName() + "/");
+                list(file, prefix + file.getName() + "/", names);
+            } else {
+                names.add(prefix + file.getName());
+            }
+        }
+    }
+
+    // Entries that are already deflated, directories and copies still have to wait for the entries that were added before them
+    private void add(String name, Output output) throws IOException {
+        if (sorted == null && pending.isEmpty()) {
+            output.write();
+        } else {
+            add(name, CompletableFuture.completedFuture(output));
+        }
+    }
+
+    private void add(String name, Future<Output> output) throws IOException {
+        if (sorted != null) {
+            sorted.putIfAbsent(name, output);
+        } else {
+            pending.add(output);
+            drain(false);
+        }
+    }
+
+    private void drain(boolean all) throws IOException {
+        while (!pending.isEmpty() && (all || pending.size() > maxPending || pending.peek().isDone())) {
+            Future<Output> output = pending.poll();
+            try {
+                output.get().write();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while deflating");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private interface Output {
+        void write() throws IOException;
+    }
+
+    private void putEntry(String name, int method, int dosTime, int crc, long compressedSize, long size) throws IOException {
+        if (sorted != null) dosTime = REPRODUCIBLE_TIME;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64Sizes = compressedSize >= ZIP64_LIMIT || size >= ZIP64_LIMIT;
+        boolean zip64Offset = position >= ZIP64_LIMIT;
+        int version = zip64Sizes || zip64Offset ? 45 : method == ZipEntry.DEFLATED ? 20 : 10;
+
+        ByteBuffer local = ByteBuffer.allocate(30 + nameBytes.length + (zip64Sizes ? 20 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER).putShort((short) version).putShort((short) UTF8_FLAG).putShort((short) method).putInt(dosTime).putInt(crc);
+        local.putInt((int) (zip64Sizes ? ZIP64_LIMIT : compressedSize)).putInt((int) (zip64Sizes ? ZIP64_LIMIT : size));
+        local.putShort((short) nameBytes.length).putShort((short) (zip64Sizes ? 20 : 0)).put(nameBytes);
+        if (zip64Sizes) local.putShort((short) ZIP64_EXTRA).putShort((short) 16).putLong(size).putLong(compressedSize);
+        outputStream.write(local.array());
+
+        int extraSize = (zip64Sizes ? 16 : 0) + (zip64Offset ? 8 : 0);
+        ByteBuffer central = ByteBuffer.allocate(46 + nameBytes.length + (extraSize == 0 ? 0 : 4 + extraSize)).order(ByteOrder.LITTLE_ENDIAN);
+        central.putInt(CENTRAL_HEADER).putShort((short) version).putShort((short) version).putShort((short) UTF8_FLAG).putShort((short) method).putInt(dosTime).putInt(crc);
+        central.putInt((int) (zip64Sizes ? ZIP64_LIMIT : compressedSize)).putInt((int) (zip64Sizes ? ZIP64_LIMIT : size));
+        central.putShort((short) nameBytes.length).putShort((short) (extraSize == 0 ? 0 : 4 + extraSize)).putShort((short) 0);
+        central.putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) (zip64Offset ? ZIP64_LIMIT : position)).put(nameBytes);
+        if (extraSize != 0) {
+            central.putShort((short) ZIP64_EXTRA).putShort((short) extraSize);
+            if (zip64Sizes) central.putLong(size).putLong(compressedSize);
+            if (zip64Offset) central.putLong(position);
+        }
+        centralDirectory.write(central.array());
+
+        position += local.capacity();
+        entries++;
+    }
+
+    /**
+     * Writes the central directory and closes the file
+     * @throws IOException If something went wrong
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (sorted != null) pending.addAll(sorted.values());
+            drain(true);
+            long directoryOffset = position;
+            long directorySize = centralDirectory.size();
+            centralDirectory.writeTo(outputStream);
+            position += directorySize;
+
+            boolean zip64 = entries >= 0xFFFF || directoryOffset >= ZIP64_LIMIT || directorySize >= ZIP64_LIMIT;
+            if (zip64) {
+                ByteBuffer end = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+                end.putInt(ZIP64_END_HEADER).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0);
+                end.putLong(entries).putLong(entries).putLong(directorySize).putLong(directoryOffset);
+                end.putInt(ZIP64_END_LOCATOR).putInt(0).putLong(position).putInt(1);
+                outputStream.write(end.array());
+            }
+
+            ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_HEADER).putShort((short) 0).putShort((short) 0);
+            end.putShort((short) (zip64 ? 0xFFFF : entries)).putShort((short) (zip64 ? 0xFFFF : entries));
+            end.putInt((int) (zip64 ? ZIP64_LIMIT : directorySize)).putInt((int) (zip64 ? ZIP64_LIMIT : directoryOffset)).putShort((short) 0);
+            outputStream.write(end.array());
+            outputStream.flush();
+        } finally {
+            if (executor != null && !sharedExecutor) executor.shutdownNow();
+            deflater.remove();
+            for (Deflater deflater : deflaters) deflater.end();
+            outputStream.close();
+        }
+    }
+
+    /**
+     * @param time The time in milliseconds since the epoch
+     * @return The time in the MS-DOS format like ZipEntry stores it, times before 1980 become 1980
+     */
+    public static int toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (dateTime.getYear() < 1980) return (1 << 21) | (1 << 16);
+        return (dateTime.getYear() - 1980) << 25 | dateTime.getMonthValue() << 21 | dateTime.getDayOfMonth() << 16 | dateTime.getHour() << 11 | dateTime.getMinute() << 5 | dateTime.getSecond() >> 1;
+    }
+}
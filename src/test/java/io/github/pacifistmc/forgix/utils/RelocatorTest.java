@@ -0,0 +1,113 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelocatorTest {
+    private static Relocator relocator(String... relocations) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < relocations.length; i += 2) map.put(relocations[i], relocations[i + 1]);
+        return new Relocator(map);
+    }
+
+    @Test
+    void relocatesOnlyAtPackageBoundaries() {
+        Relocator relocator = relocator("org.example.mod", "forge.org.example.mod");
+
+        assertEquals("forge/org/example/mod/Mod", relocator.relocatePath("org/example/mod/Mod"));
+        assertEquals("forge/org/example/mod", relocator.relocatePath("org/example/mod"));
+        assertEquals("forge.org.example.mod.Mod", relocator.relocateClassName("org.example.mod.Mod"));
+        // A plain prefix match would relocate these as well
+        assertNull(relocator.relocatePath("org/example/modded/Other"));
+        assertNull(relocator.relocateClassName("org.example.modded.Other"));
+        assertNull(relocator.relocatePath("org/example/mo"));
+    }
+
+    @Test
+    void relocatesInnerClasses() {
+        Relocator relocator = relocator("org.example.mod.Mod", "org.example.mod.forge.Mod");
+
+        assertEquals("org/example/mod/forge/Mod", relocator.relocatePath("org/example/mod/Mod"));
+        assertEquals("org/example/mod/forge/Mod$Inner", relocator.relocatePath("org/example/mod/Mod$Inner"));
+        assertEquals("org.example.mod.forge.Mod$Inner$1", relocator.relocateClassName("org.example.mod.Mod$Inner$1"));
+        assertNull(relocator.relocatePath("org/example/mod/ModHelper"));
+    }
+
+    @Test
+    void longestPackageWins() {
+        Relocator relocator = relocator("org.example", "forge.org.example", "org.example.core", "shared.org.example.core");
+
+        assertEquals("shared/org/example/core/Core", relocator.relocatePath("org/example/core/Core"));
+        assertEquals("forge/org/example/Mod", relocator.relocatePath("org/example/Mod"));
+        assertEquals("forge/org/example/corelib/Lib", relocator.relocatePath("org/example/corelib/Lib"));
+    }
+
+    @Test
+    void relocatesEntries() {
+        Relocator relocator = relocator("org.example.mod", "forge.org.example.mod");
+
+        assertEquals("forge/org/example/mod/Mod.class", relocator.relocateEntry("org/example/mod/Mod.class"));
+        assertEquals("META-INF/MANIFEST.MF", relocator.relocateEntry("META-INF/MANIFEST.MF"));
+        assertEquals("assets/mod/icon.png", relocator.relocateEntry("assets/mod/icon.png"));
+        assertNull(relocator.relocateEntry("META-INF/MOD.SF"));
+        assertNull(relocator.relocateEntry("META-INF/MOD.RSA"));
+    }
+
+    @Test
+    void relocatesClasses() {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "org/example/mod/Mod", null, "org/example/mod/Base", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "inner", "[Lorg/example/mod/Mod$Inner;", null, null).visitEnd();
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "names", "()V", null, null);
+        method.visitCode();
+        method.visitLdcInsn("org.example.mod.Base");
+        method.visitInsn(Opcodes.POP);
+        method.visitLdcInsn("org.example.modded.Other");
+        method.visitInsn(Opcodes.POP);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(1, 0);
+        method.visitEnd();
+        writer.visitEnd();
+
+        Relocator relocator = relocator("org.example.mod", "forge.org.example.mod");
+        ClassReader reader = new ClassReader(relocator.relocateClass(writer.toByteArray()));
+
+        assertEquals("forge/org/example/mod/Mod", reader.getClassName());
+        assertEquals("forge/org/example/mod/Base", reader.getSuperName());
+        List<String> descriptors = new ArrayList<>();
+        List<Object> constants = new ArrayList<>();
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                descriptors.add(descriptor);
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitLdcInsn(Object value) {
+                        constants.add(value);
+                    }
+                };
+            }
+        }, 0);
+        assertEquals("[Lforge/org/example/mod/Mod$Inner;", descriptors.get(0));
+        assertEquals("forge.org.example.mod.Base", constants.get(0));
+        assertEquals("org.example.modded.Other", constants.get(1));
+        assertTrue(relocator.getRelocations() >= 3);
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextReplacerTest {
+    private static String replace(String text, String... replacements) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < replacements.length; i += 2) map.put(replacements[i], replacements[i + 1]);
+        return new String(TextReplacer.compile(map).replace(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void leftmostMatchWins() {
+        assertEquals("1cd", replace("abcd", "ab", "1", "bcd", "2"));
+        assertEquals("Y", replace("abcd", "bc", "X", "abcd", "Y"));
+        assertEquals("u2rs", replace("ushers", "he", "1", "she", "2", "hers", "3"));
+    }
+
+    @Test
+    void longestMatchWinsAtTheSameStart() {
+        assertEquals("B.X A.Y", replace("org.example.mod.X org.example.Y", "org.example", "A", "org.example.mod", "B"));
+        assertEquals("B", replace("org/example/mod", "org/example", "A", "org/example/mod", "B"));
+    }
+
+    @Test
+    void fallsBackAfterPartialMatches() {
+        assertEquals("abX", replace("ababc", "abc", "X"));
+        assertEquals("aX", replace("aaab", "aab", "X"));
+        assertEquals("X-", replace("org.exampleorg.example.", "org.example.", "-", "org.example", "X"));
+    }
+
+    @Test
+    void replacesEveryMatch() {
+        assertEquals("forge.a forge.a/b forge.a", replace("a a/b a", "a", "forge.a"));
+        assertEquals("", replace("aaa", "a", ""));
+    }
+
+    @Test
+    void keepsTheSameArrayWhenNothingMatches() {
+        byte[] text = "nothing to see here".getBytes(StandardCharsets.UTF_8);
+        assertSame(text, TextReplacer.compile(Collections.singletonMap("org.example", "forge.org.example")).replace(text));
+
+        TextReplacer empty = TextReplacer.compile(Collections.emptyMap());
+        assertTrue(empty.isEmpty());
+        assertSame(text, empty.replace(text));
+    }
+
+    @Test
+    void replacesMultiByteCharacters() {
+        assertEquals("\u00fcn\u00efcode \u2192 forge.org.example", replace("\u00fcn\u00efcode \u2192 org.example", "org.example", "forge.org.example"));
+        assertEquals("x", replace("\u2192", "\u2192", "x"));
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipIndexTest {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void readsTheCentralDirectory() throws IOException {
+        File zip = new File(tempDir, "test.zip");
+        byte[] text = "hello hello hello hello".getBytes(StandardCharsets.UTF_8);
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zip))) {
+            zipOutputStream.setComment("a comment at the end of the file");
+            zipOutputStream.putNextEntry(new ZipEntry("META-INF/"));
+            zipOutputStream.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zipOutputStream.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+            zipOutputStream.putNextEntry(new ZipEntry("META-INF/jars/lib.jar"));
+            zipOutputStream.putNextEntry(new ZipEntry("org/example/\u00fcn\u00efcode.txt"));
+            zipOutputStream.write(text);
+            zipOutputStream.closeEntry();
+        }
+
+        ZipIndex index = ZipIndex.read(zip);
+        assertTrue(ZipIndex.isZip(zip));
+        assertEquals(4, index.size());
+        assertEquals("META-INF/MANIFEST.MF", index.getName(1));
+        assertEquals(3, index.indexOf("org/example/\u00fcn\u00efcode.txt"));
+        assertEquals(-1, index.indexOf("org/example/missing.txt"));
+        assertTrue(index.contains("META-INF/jars/lib.jar"));
+        assertFalse(index.contains("META-INF/jars"));
+        assertEquals(Arrays.asList("META-INF/jars/lib.jar"), index.list("META-INF/jars/"));
+
+        CRC32 crc = new CRC32();
+        crc.update(text);
+        assertEquals(ZipEntry.DEFLATED, index.getMethod(3));
+        assertEquals((int) crc.getValue(), index.getCrc(3));
+        assertEquals(text.length, index.getSize(3));
+        assertTrue(index.getCompressedSize(3) < text.length);
+    }
+
+    @Test
+    void readsZip64() throws IOException {
+        // ZipOutputStream only writes the zip64 end records once there are more entries than fit in the regular end record
+        File zip = new File(tempDir, "zip64.zip");
+        int entries = 0x10000 + 10;
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zip))) {
+            zipOutputStream.setLevel(0);
+            for (int i = 0; i < entries; i++) {
+                zipOutputStream.putNextEntry(new ZipEntry("entry" + i));
+                zipOutputStream.closeEntry();
+            }
+        }
+
+        ZipIndex index = ZipIndex.read(zip);
+        assertEquals(entries, index.size());
+        assertEquals("entry0", index.getName(0));
+        assertEquals("entry" + (entries - 1), index.getName(entries - 1));
+        assertEquals(entries - 1, index.indexOf("entry" + (entries - 1)));
+        assertTrue(index.getLocalHeaderOffset(entries - 1) > 0);
+    }
+
+    @Test
+    void readsZip64ExtraFields() throws IOException {
+        // Only sizes and offsets above 4 GB need the zip64 extra field, so this zip is put together by hand with every value in there
+        byte[] name = "big.bin".getBytes(StandardCharsets.UTF_8);
+        byte[] data = "pretend this is more than 4 GB".getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer zip = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+
+        zip.putInt(0x04034b50).putShort((short) 45).putShort((short) 0).putShort((short) ZipEntry.STORED).putInt(0).putInt((int) crc.getValue());
+        zip.putInt(0xFFFFFFFF).putInt(0xFFFFFFFF).putShort((short) name.length).putShort((short) 20).put(name);
+        zip.putShort((short) 1).putShort((short) 16).putLong(data.length).putLong(data.length);
+        zip.put(data);
+
+        int centralDirectory = zip.position();
+        zip.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0).putShort((short) ZipEntry.STORED).putInt(0).putInt((int) crc.getValue());
+        zip.putInt(0xFFFFFFFF).putInt(0xFFFFFFFF).putShort((short) name.length).putShort((short) 28).putShort((short) 0);
+        zip.putShort((short) 0).putShort((short) 0).putInt(0).putInt(0xFFFFFFFF).put(name);
+        zip.putShort((short) 1).putShort((short) 24).putLong(data.length).putLong(data.length).putLong(0);
+        int centralDirectorySize = zip.position() - centralDirectory;
+
+        zip.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) 1).putShort((short) 1);
+        zip.putInt(centralDirectorySize).putInt(centralDirectory).putShort((short) 0);
+        File file = new File(tempDir, "extra.zip");
+        Files.write(file.toPath(), Arrays.copyOf(zip.array(), zip.position()));
+
+        ZipIndex index = ZipIndex.read(file);
+        assertEquals(1, index.size());
+        assertEquals("big.bin", index.getName(0));
+        assertEquals(data.length, index.getSize(0));
+        assertEquals(data.length, index.getCompressedSize(0));
+        assertEquals(0, index.getLocalHeaderOffset(0));
+        assertEquals((int) crc.getValue(), index.getCrc(0));
+    }
+
+    @Test
+    void firstDuplicateWins() throws IOException {
+        // ZipOutputStream refuses duplicate names, so the second name is changed afterwards
+        File zip = new File(tempDir, "duplicates.zip");
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (String name : new String[]{"dup-1.txt", "other.txt", "dup-2.txt"}) {
+                zipOutputStream.putNextEntry(new ZipEntry(name));
+                zipOutputStream.closeEntry();
+            }
+        }
+        byte[] bytes = Files.readAllBytes(zip.toPath());
+        Files.write(zip.toPath(), new String(bytes, StandardCharsets.ISO_8859_1).replace("dup-2.txt", "dup-1.txt").getBytes(StandardCharsets.ISO_8859_1));
+
+        ZipIndex index = ZipIndex.read(zip);
+        assertEquals(3, index.size());
+        assertEquals("dup-1.txt", index.getName(2));
+        assertEquals(0, index.indexOf("dup-1.txt"));
+        assertEquals(1, index.indexOf("other.txt"));
+    }
+
+    @Test
+    void rejectsFilesThatArentZips() throws IOException {
+        File file = new File(tempDir, "not.zip");
+        Files.write(file.toPath(), "not a zip file".getBytes(StandardCharsets.UTF_8));
+
+        assertFalse(ZipIndex.isZip(file));
+        assertThrows(ZipException.class, () -> ZipIndex.read(file));
+    }
+}
@@ -0,0 +1,176 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipWriterTest {
+    // 2024-01-01 12:00 in the MS-DOS format
+    private static final int DOS_TIME = (44 << 25) | (1 << 21) | (1 << 16) | (12 << 11);
+
+    @TempDir
+    File tempDir;
+
+    private static Map<String, byte[]> entries() {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            byte[] bytes = new byte[random.nextInt(20000)];
+            // Half of them compress well and half of them don't
+            if (i % 2 == 0) Arrays.fill(bytes, (byte) ('a' + i % 26));
+            else random.nextBytes(bytes);
+            entries.put("org/example/Entry" + i + ".bin", bytes);
+        }
+        entries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+        entries.put("empty.txt", new byte[0]);
+        return entries;
+    }
+
+    private static Map<String, byte[]> read(File zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                if (entry.isDirectory()) continue;
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    entries.put(entry.getName(), IOUtils.toByteArray(inputStream));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void assertEntries(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+        }
+    }
+
+    @Test
+    void deflatesEntries() throws IOException {
+        for (int threads : new int[]{1, 4}) {
+            File zip = new File(tempDir, "deflated-" + threads + ".zip");
+            Map<String, byte[]> entries = entries();
+            try (ZipWriter zipWriter = new ZipWriter(zip, -1, threads)) {
+                zipWriter.putDirectory("org/", DOS_TIME);
+                for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                    if (entry.getKey().endsWith("0.bin")) {
+                        byte[] bytes = entry.getValue();
+                        zipWriter.write(entry.getKey(), () -> bytes, DOS_TIME);
+                    } else {
+                        zipWriter.write(entry.getKey(), entry.getValue(), DOS_TIME);
+                    }
+                }
+            }
+
+            assertEntries(entries, read(zip));
+            ZipIndex index = ZipIndex.read(zip);
+            assertEquals("org/", index.getName(0));
+            // The entries stay in the order they were added no matter how many threads deflate them
+            List<String> names = new ArrayList<>(entries.keySet());
+            for (int i = 0; i < names.size(); i++) assertEquals(names.get(i), index.getName(i + 1));
+            assertEquals(ZipEntry.DEFLATED, index.getMethod(1));
+            assertEquals(DOS_TIME, index.getDosTime(1));
+        }
+    }
+
+    @Test
+    void storesEntriesAtLevelZero() throws IOException {
+        File zip = new File(tempDir, "stored.zip");
+        Map<String, byte[]> entries = entries();
+        try (ZipWriter zipWriter = new ZipWriter(zip, 0, 2)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) zipWriter.write(entry.getKey(), entry.getValue(), DOS_TIME);
+        }
+
+        assertEntries(entries, read(zip));
+        ZipIndex index = ZipIndex.read(zip);
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(ZipEntry.STORED, index.getMethod(i));
+            assertEquals(index.getSize(i), index.getCompressedSize(i));
+        }
+    }
+
+    @Test
+    void copiesEntriesWithoutInflatingThem() throws IOException {
+        File source = new File(tempDir, "source.zip");
+        Map<String, byte[]> entries = entries();
+        // Big enough to be transferred straight between the files instead of going through the buffer
+        byte[] big = new byte[200 * 1024];
+        new Random(7).nextBytes(big);
+        entries.put("big.bin", big);
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(source))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                // A stored entry needs its sizes and CRC up front
+                if (entry.getKey().equals("empty.txt")) {
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(0);
+                    zipEntry.setCrc(0);
+                }
+                zipOutputStream.putNextEntry(zipEntry);
+                zipOutputStream.write(entry.getValue());
+                zipOutputStream.closeEntry();
+            }
+        }
+
+        File zip = new File(tempDir, "copied.zip");
+        ZipIndex index = ZipIndex.read(source);
+        Map<String, byte[]> renamed = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             ZipWriter zipWriter = new ZipWriter(zip, -1, 2)) {
+            for (int i = 0; i < index.size(); i++) {
+                assertTrue(zipWriter.copy("copied/" + index.getName(i), index, i, channel));
+                renamed.put("copied/" + index.getName(i), entries.get(index.getName(i)));
+            }
+            zipWriter.write("new.txt", "written next to the copies".getBytes(StandardCharsets.UTF_8), DOS_TIME);
+            assertEquals(index.size(), zipWriter.getCopied());
+        }
+        renamed.put("new.txt", "written next to the copies".getBytes(StandardCharsets.UTF_8));
+
+        assertEntries(renamed, read(zip));
+        ZipIndex copied = ZipIndex.read(zip);
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.getCrc(i), copied.getCrc(i));
+            assertEquals(index.getMethod(i), copied.getMethod(i));
+            assertEquals(index.getCompressedSize(i), copied.getCompressedSize(i));
+        }
+    }
+
+    @Test
+    void reproducibleOutputIsTheSameForEveryThreadCount() throws IOException {
+        List<Map.Entry<String, byte[]>> entries = new ArrayList<>(entries().entrySet());
+        byte[] expected = null;
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            // The order they're added in and the time they have shouldn't matter either
+            Collections.shuffle(entries, new Random(threads));
+            File zip = new File(tempDir, "reproducible-" + threads + ".zip");
+            try (ZipWriter zipWriter = new ZipWriter(zip, -1, threads)) {
+                zipWriter.setReproducible(true);
+                for (Map.Entry<String, byte[]> entry : entries) zipWriter.write(entry.getKey(), entry.getValue(), DOS_TIME + threads);
+            }
+
+            byte[] bytes = Files.readAllBytes(zip.toPath());
+            if (expected == null) expected = bytes;
+            else assertArrayEquals(expected, bytes, threads + " threads");
+        }
+
+        ZipIndex index = ZipIndex.read(new File(tempDir, "reproducible-1.zip"));
+        assertEquals("META-INF/MANIFEST.MF", index.getName(0));
+    }
+}